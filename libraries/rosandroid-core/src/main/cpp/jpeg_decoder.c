@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/* JNI side of org.ros.android.NativeJpegDecoder. */
+
+#include <stdint.h>
+
+#include <android/bitmap.h>
+#include <jni.h>
+#include <turbojpeg.h>
+
+JNIEXPORT jlong JNICALL
+Java_org_ros_android_NativeJpegDecoder_nativeCreate(JNIEnv *env, jclass clazz) {
+  return (jlong) (intptr_t) tjInitDecompress();
+}
+
+JNIEXPORT void JNICALL
+Java_org_ros_android_NativeJpegDecoder_nativeDestroy(JNIEnv *env, jclass clazz, jlong handle) {
+  tjDestroy((tjhandle) (intptr_t) handle);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_org_ros_android_NativeJpegDecoder_nativeDecode(JNIEnv *env, jclass clazz, jlong handle,
+                                                    jbyteArray array, jobject direct, jint offset,
+                                                    jint length, jintArray header, jobject bitmap,
+                                                    jint sample_size) {
+  tjhandle decompressor = (tjhandle) (intptr_t) handle;
+  AndroidBitmapInfo info;
+  void *pixels = NULL;
+  jbyte *elements = NULL;
+  unsigned char *data;
+  int width = 0;
+  int height = 0;
+  int subsampling;
+  int colorspace;
+  jboolean parsed = JNI_FALSE;
+  jboolean decoded = JNI_FALSE;
+
+  /* The bitmap is locked first, no JNI calls are allowed inside the critical region. */
+  if (bitmap != NULL) {
+    if (AndroidBitmap_getInfo(env, bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS
+        || info.format != ANDROID_BITMAP_FORMAT_RGBA_8888
+        || AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+      return JNI_FALSE;
+    }
+  }
+
+  if (array != NULL) {
+    elements = (*env)->GetPrimitiveArrayCritical(env, array, NULL);
+    data = (unsigned char *) elements;
+  } else {
+    data = (unsigned char *) (*env)->GetDirectBufferAddress(env, direct);
+  }
+
+  if (data != NULL) {
+    data += offset;
+    parsed = tjDecompressHeader3(decompressor, data, (unsigned long) length, &width, &height,
+                                 &subsampling, &colorspace) == 0;
+    if (parsed && pixels != NULL) {
+      int scaled_width = (width + sample_size - 1) / sample_size;
+      int scaled_height = (height + sample_size - 1) / sample_size;
+      decoded = scaled_width == (int) info.width && scaled_height == (int) info.height
+          && tjDecompress2(decompressor, data, (unsigned long) length, (unsigned char *) pixels,
+                           scaled_width, (int) info.stride, scaled_height, TJPF_RGBA,
+                           TJFLAG_FASTDCT) == 0;
+    }
+  }
+
+  if (elements != NULL) {
+    (*env)->ReleasePrimitiveArrayCritical(env, array, elements, JNI_ABORT);
+  }
+  if (pixels != NULL) {
+    AndroidBitmap_unlockPixels(env, bitmap);
+  }
+
+  if (parsed) {
+    jint size[2] = { width, height };
+    (*env)->SetIntArrayRegion(env, header, 0, 2, size);
+  }
+  return bitmap == NULL ? parsed : decoded;
+}
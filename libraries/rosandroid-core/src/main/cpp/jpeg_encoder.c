@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/* JNI side of org.ros.android.NativeJpegEncoder. */
+
+#include <stdint.h>
+#include <stdlib.h>
+
+#include <jni.h>
+#include <turbojpeg.h>
+
+typedef struct {
+  tjhandle compressor;
+  /* Scratch for the Y, U and V planes of the image to compress. */
+  unsigned char *planes;
+  size_t planes_capacity;
+} encoder;
+
+JNIEXPORT jlong JNICALL
+Java_org_ros_android_NativeJpegEncoder_nativeCreate(JNIEnv *env, jclass clazz) {
+  encoder *self = calloc(1, sizeof(encoder));
+  if (self == NULL) {
+    return 0;
+  }
+  self->compressor = tjInitCompress();
+  if (self->compressor == NULL) {
+    free(self);
+    return 0;
+  }
+  return (jlong) (intptr_t) self;
+}
+
+JNIEXPORT void JNICALL
+Java_org_ros_android_NativeJpegEncoder_nativeDestroy(JNIEnv *env, jclass clazz, jlong handle) {
+  encoder *self = (encoder *) (intptr_t) handle;
+  tjDestroy(self->compressor);
+  free(self->planes);
+  free(self);
+}
+
+JNIEXPORT jint JNICALL
+Java_org_ros_android_NativeJpegEncoder_nativeGetMaximumSize(JNIEnv *env, jclass clazz,
+                                                            jint width, jint height) {
+  return (jint) tjBufSize(width, height, TJSAMP_420);
+}
+
+/*
+ * Picks the nearest source sample for every pixel of the scaled crop, like
+ * YuvScaler, and splits the interleaved VU plane of the NV21 frame into U and
+ * V planes. The Y plane of an unscaled crop is read from the frame in place.
+ */
+static void split_planes(const unsigned char *frame, int frame_width, int frame_height,
+                         int crop_left, int crop_top, int crop_width, int crop_height,
+                         int width, int height, unsigned char *planes,
+                         const unsigned char *source_planes[3], int strides[3]) {
+  int scaling = width != crop_width || height != crop_height;
+  unsigned char *u = planes + (scaling ? width * height : 0);
+  unsigned char *v = u + (width / 2) * (height / 2);
+  const unsigned char *chroma = frame + frame_width * frame_height;
+  int x;
+  int y;
+
+  if (scaling) {
+    unsigned char *luma = planes;
+    for (y = 0; y < height; y++) {
+      const unsigned char *row =
+          frame + (crop_top + (int) ((int64_t) y * crop_height / height)) * frame_width;
+      for (x = 0; x < width; x++) {
+        *luma++ = row[crop_left + (int) ((int64_t) x * crop_width / width)];
+      }
+    }
+    source_planes[0] = planes;
+    strides[0] = width;
+  } else {
+    source_planes[0] = frame + crop_top * frame_width + crop_left;
+    strides[0] = frame_width;
+  }
+
+  for (y = 0; y < height / 2; y++) {
+    int source_row = crop_top + 2 * (int) ((int64_t) y * crop_height / height);
+    const unsigned char *row = chroma + (source_row / 2) * frame_width;
+    for (x = 0; x < width / 2; x++) {
+      const unsigned char *sample =
+          row + crop_left + 2 * (int) ((int64_t) x * crop_width / width);
+      *v++ = sample[0];
+      *u++ = sample[1];
+    }
+  }
+  source_planes[1] = planes + (scaling ? width * height : 0);
+  source_planes[2] = source_planes[1] + (width / 2) * (height / 2);
+  strides[1] = width / 2;
+  strides[2] = width / 2;
+}
+
+JNIEXPORT jint JNICALL
+Java_org_ros_android_NativeJpegEncoder_nativeEncode(JNIEnv *env, jclass clazz, jlong handle,
+                                                    jbyteArray data, jint frame_width,
+                                                    jint frame_height, jint crop_left,
+                                                    jint crop_top, jint crop_width,
+                                                    jint crop_height, jint width, jint height,
+                                                    jint quality, jbyteArray output,
+                                                    jint offset, jint capacity) {
+  encoder *self = (encoder *) (intptr_t) handle;
+  size_t planes_size = (size_t) width * height * 3 / 2;
+  const unsigned char *source_planes[3];
+  int strides[3];
+  unsigned char *frame;
+  unsigned char *jpeg;
+  unsigned long jpeg_size = (unsigned long) capacity;
+  jint result = -1;
+
+  if (planes_size > self->planes_capacity) {
+    unsigned char *planes = realloc(self->planes, planes_size);
+    if (planes == NULL) {
+      return -1;
+    }
+    self->planes = planes;
+    self->planes_capacity = planes_size;
+  }
+
+  /* No JNI calls are allowed between getting and releasing the arrays. */
+  frame = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
+  if (frame == NULL) {
+    return -1;
+  }
+  jpeg = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+  if (jpeg != NULL) {
+    unsigned char *jpeg_buffer = jpeg + offset;
+    split_planes(frame, frame_width, frame_height, crop_left, crop_top, crop_width, crop_height,
+                 width, height, self->planes, source_planes, strides);
+    /* The output has room for tjBufSize() bytes, so it never needs to grow. */
+    if (tjCompressFromYUVPlanes(self->compressor, source_planes, width, strides, height,
+                                TJSAMP_420, &jpeg_buffer, &jpeg_size, quality,
+                                TJFLAG_NOREALLOC | TJFLAG_FASTDCT) == 0) {
+      result = (jint) jpeg_size;
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, output, jpeg, result < 0 ? JNI_ABORT : 0);
+  }
+  (*env)->ReleasePrimitiveArrayCritical(env, data, frame, JNI_ABORT);
+  return result;
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.nio.ByteOrder;
+
+/**
+ * Colors compressedDepth sensor_msgs/CompressedImage messages, as published by
+ * compressed_depth_image_transport, with a {@link DepthColorMap}.
+ * <p>
+ * The message data starts with a configuration header holding the depth
+ * quantization parameters followed by a 16 bit grayscale PNG. For 16UC1 images
+ * the PNG holds depths in millimeters, for 32FC1 images quantized inverse
+ * depths.
+ */
+public class BitmapFromCompressedDepthImage implements
+    MessageCallable<Bitmap, sensor_msgs.CompressedImage> {
+
+  // The compression format enum followed by two float quantization parameters.
+  private static final int CONFIG_HEADER_SIZE = 12;
+
+  private final DepthColorMap colorMap;
+  private final BitmapPool bitmapPool;
+  private GrayscalePngDecoder pngDecoder;
+
+  private float[] meters;
+  private int[] pixels;
+
+  public BitmapFromCompressedDepthImage(DepthColorMap colorMap) {
+    this(colorMap, null);
+  }
+
+  /**
+   * @param bitmapPool
+   *          frames are converted into bitmaps taken from this pool, may be
+   *          {@code null} to always allocate a new bitmap
+   */
+  public BitmapFromCompressedDepthImage(DepthColorMap colorMap, BitmapPool bitmapPool) {
+    Preconditions.checkNotNull(colorMap);
+    this.colorMap = colorMap;
+    this.bitmapPool = bitmapPool;
+  }
+
+  public DepthColorMap getColorMap() {
+    return colorMap;
+  }
+
+  @Override
+  public synchronized Bitmap call(sensor_msgs.CompressedImage message) {
+    String format = message.getFormat();
+    Preconditions.checkArgument(format.contains("compressedDepth"),
+        "Not a compressedDepth image: " + format);
+    boolean inverseDepth = format.startsWith(BitmapFromDepthImage.TYPE_32FC1);
+
+    ChannelBuffer data = message.getData();
+    int offset = data.readerIndex();
+    Preconditions.checkArgument(data.readableBytes() > CONFIG_HEADER_SIZE);
+    // The header is written in the byte order of the publishing machine, which
+    // is little endian on all platforms ROS runs on.
+    float depthQuantA = Float.intBitsToFloat(toLittleEndian(data.getInt(offset + 4), data.order()));
+    float depthQuantB = Float.intBitsToFloat(toLittleEndian(data.getInt(offset + 8), data.order()));
+
+    if (pngDecoder == null) {
+      pngDecoder = new GrayscalePngDecoder();
+    }
+    pngDecoder.decode(data.slice(offset + CONFIG_HEADER_SIZE,
+        data.readableBytes() - CONFIG_HEADER_SIZE));
+    int width = pngDecoder.getWidth();
+    int height = pngDecoder.getHeight();
+    int[] samples = pngDecoder.getSamples();
+    if (pixels == null || pixels.length < width * height) {
+      pixels = new int[width * height];
+    }
+    if (!inverseDepth) {
+      colorMap.convertMillimeters(samples, width * height, pixels, 0);
+    } else {
+      if (meters == null || meters.length < width) {
+        meters = new float[width];
+      }
+      for (int y = 0; y < height; y++) {
+        int rowOffset = y * width;
+        for (int x = 0; x < width; x++) {
+          int sample = samples[rowOffset + x];
+          meters[x] = sample == 0 ? 0 : depthQuantA / (sample - depthQuantB);
+        }
+        colorMap.convertMeters(meters, width, pixels, rowOffset);
+      }
+    }
+    return BitmapFromDepthImage.toBitmap(pixels, width, height, bitmapPool);
+  }
+
+  /**
+   * Releases the PNG decoder and its native zlib stream, if one has been
+   * created. The callable can still be used afterwards.
+   */
+  public synchronized void release() {
+    if (pngDecoder != null) {
+      pngDecoder.release();
+      pngDecoder = null;
+    }
+  }
+
+  private static int toLittleEndian(int value, ByteOrder order) {
+    return order == ByteOrder.BIG_ENDIAN ? Integer.reverseBytes(value) : value;
+  }
+}
@@ -18,18 +18,263 @@ package org.ros.android;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.exception.RosRuntimeException;
+
+import java.io.IOException;
 
 /**
+ * Decodes sensor_msgs/CompressedImage messages.
+ * <p>
+ * With downsampling enabled, frames are decoded with the largest power of two
+ * {@link BitmapFactory.Options#inSampleSize} that still covers the size of the
+ * target view.
+ * <p>
+ * Heap buffers are decoded in place. Direct and composite buffers are streamed
+ * through a reusable scratch array instead of being copied first.
+ * <p>
+ * When only a region of a frame is requested, just that region is decoded with
+ * a {@link BitmapRegionDecoder}.
+ * <p>
+ * With native decoding enabled, JPEG frames decoded to ARGB_8888 go through the
+ * {@link NativeJpegDecoder} if its library is packaged with the application.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class BitmapFromCompressedImage implements
-        MessageCallable<Bitmap, sensor_msgs.CompressedImage> {
+        RegionMessageCallable<Bitmap, sensor_msgs.CompressedImage> {
+
+  // Matches the default temporary storage size of BitmapFactory.
+  private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+  private final BitmapPool bitmapPool;
+  private final BitmapFactory.Options options;
+  private final Rect region;
+
+  private NativeJpegDecoder nativeDecoder;
+
+  private volatile boolean downsampling;
+  private volatile boolean nativeDecoding;
+  private volatile Bitmap.Config preferredConfig = Bitmap.Config.ARGB_8888;
+
+  public BitmapFromCompressedImage() {
+    this(null);
+  }
+
+  /**
+   * @param bitmapPool
+   *          frames are decoded into bitmaps taken from this pool, may be
+   *          {@code null} to always allocate a new bitmap
+   */
+  public BitmapFromCompressedImage(BitmapPool bitmapPool) {
+    this.bitmapPool = bitmapPool;
+    options = new BitmapFactory.Options();
+    options.inTempStorage = new byte[TEMP_STORAGE_SIZE];
+    region = new Rect();
+  }
+
+  /**
+   * Enables decoding at a reduced resolution that still covers the target view.
+   * Only takes effect if the size of the target view is known.
+   */
+  public void setDownsampling(boolean downsampling) {
+    this.downsampling = downsampling;
+  }
+
+  /**
+   * @param preferredConfig
+   *          the pixel format to decode into, e.g.
+   *          {@link Bitmap.Config#RGB_565} to halve memory use
+   */
+  public void setPreferredConfig(Bitmap.Config preferredConfig) {
+    this.preferredConfig = preferredConfig;
+  }
+
+  /**
+   * Enables decoding JPEG frames with libjpeg-turbo. Has no effect if
+   * {@link NativeJpegDecoder#isAvailable()} returns {@code false}, frames are
+   * then decoded with {@link BitmapFactory} as before.
+   */
+  public void setNativeDecoding(boolean nativeDecoding) {
+    this.nativeDecoding = nativeDecoding;
+  }
 
   @Override
   public Bitmap call(sensor_msgs.CompressedImage message) {
+    return call(message, 0, 0);
+  }
+
+  @Override
+  public synchronized Bitmap call(sensor_msgs.CompressedImage message, int width, int height) {
     ChannelBuffer buffer = message.getData();
-    byte[] data = buffer.array();
-    return BitmapFactory.decodeByteArray(data, buffer.arrayOffset(), buffer.readableBytes());
+    Bitmap.Config config = preferredConfig;
+    boolean sampled = downsampling && width > 0 && height > 0;
+    if (nativeDecoding && config == Bitmap.Config.ARGB_8888 && NativeJpegDecoder.isAvailable()
+        && message.getFormat().contains("jpeg")) {
+      Bitmap bitmap = decodeNative(buffer, sampled ? width : 0, sampled ? height : 0);
+      if (bitmap != null) {
+        return bitmap;
+      }
+    }
+    options.inPreferredConfig = config;
+    options.inSampleSize = 1;
+    options.inMutable = bitmapPool != null;
+    if (bitmapPool == null && !sampled) {
+      return decode(buffer, options);
+    }
+
+    options.inJustDecodeBounds = true;
+    decode(buffer, options);
+    options.inJustDecodeBounds = false;
+    if (sampled) {
+      options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, width, height);
+    }
+    if (bitmapPool == null) {
+      return decode(buffer, options);
+    }
+    // Decoding into a reused bitmap at a reduced size is only supported from KitKat.
+    if (options.inSampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      int sampleSize = options.inSampleSize;
+      options.inBitmap =
+          bitmapPool.get((options.outWidth + sampleSize - 1) / sampleSize,
+              (options.outHeight + sampleSize - 1) / sampleSize, config);
+    }
+    try {
+      return decode(buffer, options);
+    } catch (IllegalArgumentException e) {
+      // The pooled bitmap could not be reused for this frame.
+      options.inBitmap = null;
+      return decode(buffer, options);
+    } finally {
+      options.inBitmap = null;
+    }
+  }
+
+  /**
+   * @return the decoded frame, or {@code null} if the native decoder failed
+   */
+  private Bitmap decodeNative(ChannelBuffer buffer, int width, int height) {
+    if (nativeDecoder == null) {
+      nativeDecoder = new NativeJpegDecoder();
+    }
+    if (!nativeDecoder.readHeader(buffer)) {
+      return null;
+    }
+    int sampleSize = 1;
+    if (width > 0 && height > 0) {
+      // libjpeg-turbo scales by at most 1/8.
+      sampleSize =
+          Math.min(getSampleSize(nativeDecoder.getWidth(), nativeDecoder.getHeight(), width,
+              height), 8);
+    }
+    int scaledWidth = NativeJpegDecoder.getScaledDimension(nativeDecoder.getWidth(), sampleSize);
+    int scaledHeight = NativeJpegDecoder.getScaledDimension(nativeDecoder.getHeight(), sampleSize);
+    Bitmap bitmap = null;
+    if (bitmapPool != null) {
+      bitmap = bitmapPool.get(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+    }
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+    }
+    if (nativeDecoder.decode(buffer, bitmap, sampleSize)) {
+      return bitmap;
+    }
+    if (bitmapPool != null) {
+      bitmapPool.put(bitmap);
+    }
+    return null;
+  }
+
+  /**
+   * Releases the native decoder, if one has been created. The callable can
+   * still be used afterwards.
+   */
+  public synchronized void release() {
+    if (nativeDecoder != null) {
+      nativeDecoder.release();
+      nativeDecoder = null;
+    }
+  }
+
+  @Override
+  public synchronized Bitmap call(sensor_msgs.CompressedImage message, RectF relativeRegion,
+      int width, int height) {
+    BitmapRegionDecoder decoder;
+    try {
+      decoder = newRegionDecoder(message.getData());
+    } catch (IOException e) {
+      throw new RosRuntimeException(e);
+    }
+    try {
+      int imageWidth = decoder.getWidth();
+      int imageHeight = decoder.getHeight();
+      region.set((int) (relativeRegion.left * imageWidth), (int) (relativeRegion.top * imageHeight),
+          (int) Math.ceil(relativeRegion.right * imageWidth),
+          (int) Math.ceil(relativeRegion.bottom * imageHeight));
+      if (!region.intersect(0, 0, imageWidth, imageHeight)) {
+        region.set(0, 0, imageWidth, imageHeight);
+      }
+
+      Bitmap.Config config = preferredConfig;
+      options.inPreferredConfig = config;
+      options.inSampleSize = 1;
+      if (downsampling && width > 0 && height > 0) {
+        options.inSampleSize = getSampleSize(region.width(), region.height(), width, height);
+      }
+      // Region decoding into a reused bitmap is only supported from Jelly Bean.
+      if (bitmapPool != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        int sampleSize = options.inSampleSize;
+        options.inBitmap =
+            bitmapPool.get((region.width() + sampleSize - 1) / sampleSize,
+                (region.height() + sampleSize - 1) / sampleSize, config);
+      }
+      try {
+        return decoder.decodeRegion(region, options);
+      } catch (IllegalArgumentException e) {
+        // The pooled bitmap could not be reused for this region.
+        options.inBitmap = null;
+        return decoder.decodeRegion(region, options);
+      }
+    } finally {
+      options.inBitmap = null;
+      decoder.recycle();
+    }
+  }
+
+  private static BitmapRegionDecoder newRegionDecoder(ChannelBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      return BitmapRegionDecoder.newInstance(buffer.array(),
+          ChannelBufferStreams.getArrayOffset(buffer), buffer.readableBytes(), false);
+    }
+    return BitmapRegionDecoder.newInstance(ChannelBufferStreams.newInputStream(buffer), false);
+  }
+
+  private static Bitmap decode(ChannelBuffer buffer, BitmapFactory.Options options) {
+    if (buffer.hasArray()) {
+      return BitmapFactory.decodeByteArray(buffer.array(),
+          ChannelBufferStreams.getArrayOffset(buffer), buffer.readableBytes(), options);
+    }
+    return BitmapFactory.decodeStream(ChannelBufferStreams.newInputStream(buffer), null,
+        options);
+  }
+
+  /**
+   * @return the largest power of two sample size that decodes an image of the
+   *         given size to at least the requested size
+   */
+  private static int getSampleSize(int imageWidth, int imageHeight, int width, int height) {
+    int sampleSize = 1;
+    while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  public BitmapPool getBitmapPool() {
+    return bitmapPool;
   }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Colors sensor_msgs/Image depth images with a {@link DepthColorMap}.
+ * <p>
+ * Supports 16UC1 depths in millimeters and 32FC1 depths in meters. Rows are
+ * converted in bulk through reused primitive arrays.
+ */
+public class BitmapFromDepthImage implements MessageCallable<Bitmap, sensor_msgs.Image> {
+
+  public static final String TYPE_16UC1 = "16UC1";
+  public static final String TYPE_32FC1 = "32FC1";
+
+  private final DepthColorMap colorMap;
+  private final BitmapPool bitmapPool;
+
+  private byte[] row;
+  private int[] millimeters;
+  private float[] meters;
+  private int[] pixels;
+
+  public BitmapFromDepthImage(DepthColorMap colorMap) {
+    this(colorMap, null);
+  }
+
+  /**
+   * @param bitmapPool
+   *          frames are converted into bitmaps taken from this pool, may be
+   *          {@code null} to always allocate a new bitmap
+   */
+  public BitmapFromDepthImage(DepthColorMap colorMap, BitmapPool bitmapPool) {
+    Preconditions.checkNotNull(colorMap);
+    this.colorMap = colorMap;
+    this.bitmapPool = bitmapPool;
+  }
+
+  public DepthColorMap getColorMap() {
+    return colorMap;
+  }
+
+  @Override
+  public synchronized Bitmap call(sensor_msgs.Image message) {
+    String encoding = message.getEncoding();
+    boolean floatingPoint = encoding.equals(TYPE_32FC1);
+    Preconditions.checkArgument(floatingPoint || encoding.equals(TYPE_16UC1)
+        || encoding.equals(BitmapFromImage.MONO16), "Unsupported depth encoding: " + encoding);
+    int width = message.getWidth();
+    int height = message.getHeight();
+    int step = message.getStep();
+    boolean bigEndian = message.getIsBigendian() != 0;
+    int bytesPerPixel = floatingPoint ? 4 : 2;
+    Preconditions.checkArgument((long) step >= (long) width * bytesPerPixel,
+        "Image step of %s bytes is too small for %s pixels of %s bytes.", step, width,
+        bytesPerPixel);
+    ChannelBuffer data = message.getData();
+    Preconditions.checkArgument((long) step * height <= data.readableBytes(),
+        "Image data of %s bytes is too small for %s rows of %s bytes.", data.readableBytes(),
+        height, step);
+    ensureCapacity(width, height, step);
+
+    int offset = data.readerIndex();
+    for (int y = 0; y < height; y++) {
+      data.getBytes(offset + y * step, row, 0, step);
+      if (floatingPoint) {
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+          meters[x] = Float.intBitsToFloat(bigEndian
+              ? (row[i] & 0xFF) << 24 | (row[i + 1] & 0xFF) << 16 | (row[i + 2] & 0xFF) << 8
+                  | (row[i + 3] & 0xFF)
+              : (row[i + 3] & 0xFF) << 24 | (row[i + 2] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8
+                  | (row[i] & 0xFF));
+        }
+        colorMap.convertMeters(meters, width, pixels, y * width);
+      } else {
+        for (int x = 0, i = 0; x < width; x++, i += 2) {
+          millimeters[x] = bigEndian
+              ? (row[i] & 0xFF) << 8 | (row[i + 1] & 0xFF)
+              : (row[i + 1] & 0xFF) << 8 | (row[i] & 0xFF);
+        }
+        colorMap.convertMillimeters(millimeters, width, pixels, y * width);
+      }
+    }
+    return toBitmap(pixels, width, height, bitmapPool);
+  }
+
+  private void ensureCapacity(int width, int height, int step) {
+    if (row == null || row.length < step) {
+      row = new byte[step];
+    }
+    if (millimeters == null || millimeters.length < width) {
+      millimeters = new int[width];
+      meters = new float[width];
+    }
+    if (pixels == null || pixels.length < width * height) {
+      pixels = new int[width * height];
+    }
+  }
+
+  static Bitmap toBitmap(int[] pixels, int width, int height, BitmapPool bitmapPool) {
+    Bitmap bitmap = null;
+    if (bitmapPool != null) {
+      bitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+    }
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    return bitmap;
+  }
+}
@@ -1,12 +1,12 @@
 /*
  * Copyright (C) 2011 Google Inc.
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
  * the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
@@ -19,29 +19,361 @@ package org.ros.android;
 import com.google.common.base.Preconditions;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.exception.RosRuntimeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
+ * Converts sensor_msgs/Image messages to {@link Bitmap}s.
+ * <p>
+ * Supported encodings are rgb8, bgr8, rgba8, bgra8, mono8, mono16, yuv422 and
+ * the 8 bit Bayer encodings. Rows are read from the message in bulk and written
+ * to the bitmap with {@link Bitmap#setPixels}. If an {@link ExecutorService} is
+ * given, frames of at least {@link #MINIMUM_PARALLEL_ROWS} rows are split into
+ * row stripes that are converted in parallel.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class BitmapFromImage implements MessageCallable<Bitmap, sensor_msgs.Image> {
 
+  public static final String RGB8 = "rgb8";
+  public static final String BGR8 = "bgr8";
+  public static final String RGBA8 = "rgba8";
+  public static final String BGRA8 = "bgra8";
+  public static final String MONO8 = "mono8";
+  public static final String MONO16 = "mono16";
+  public static final String YUV422 = "yuv422";
+  public static final String BAYER_RGGB8 = "bayer_rggb8";
+  public static final String BAYER_BGGR8 = "bayer_bggr8";
+  public static final String BAYER_GBRG8 = "bayer_gbrg8";
+  public static final String BAYER_GRBG8 = "bayer_grbg8";
+
+  public static final int MINIMUM_PARALLEL_ROWS = 128;
+
+  // Number of rows handed to a single Bitmap.setPixels() call.
+  private static final int ROWS_PER_BATCH = 16;
+
+  private static final int ENCODING_RGB8 = 0;
+  private static final int ENCODING_BGR8 = 1;
+  private static final int ENCODING_RGBA8 = 2;
+  private static final int ENCODING_BGRA8 = 3;
+  private static final int ENCODING_MONO8 = 4;
+  private static final int ENCODING_MONO16 = 5;
+  private static final int ENCODING_YUV422 = 6;
+  private static final int ENCODING_BAYER_RGGB = 7;
+  private static final int ENCODING_BAYER_BGGR = 8;
+  private static final int ENCODING_BAYER_GBRG = 9;
+  private static final int ENCODING_BAYER_GRBG = 10;
+
+  private final BitmapPool bitmapPool;
+  private final ExecutorService executorService;
+  private final List<StripeConverter> stripeConverters;
+
+  private final class StripeConverter implements Callable<Void> {
+
+    private byte[] row;
+    private byte[] nextRow;
+    private int[] pixels;
+
+    private Bitmap bitmap;
+    private ChannelBuffer data;
+    private int encoding;
+    private boolean bigEndian;
+    private int width;
+    private int height;
+    private int step;
+    private int firstRow;
+    private int lastRow;
+
+    private void prepare(Bitmap bitmap, sensor_msgs.Image message, int encoding, int firstRow,
+        int lastRow) {
+      this.bitmap = bitmap;
+      this.encoding = encoding;
+      this.firstRow = firstRow;
+      this.lastRow = lastRow;
+      data = message.getData();
+      bigEndian = message.getIsBigendian() != 0;
+      width = message.getWidth();
+      height = message.getHeight();
+      step = message.getStep();
+      if (row == null || row.length < step) {
+        row = new byte[step];
+        nextRow = new byte[step];
+      }
+      if (pixels == null || pixels.length < width * ROWS_PER_BATCH) {
+        pixels = new int[width * ROWS_PER_BATCH];
+      }
+    }
+
+    @Override
+    public Void call() {
+      int offset = data.readerIndex();
+      for (int batchRow = firstRow; batchRow < lastRow; batchRow += ROWS_PER_BATCH) {
+        int rows = Math.min(ROWS_PER_BATCH, lastRow - batchRow);
+        for (int i = 0; i < rows; i++) {
+          int y = batchRow + i;
+          if (encoding == ENCODING_BAYER_RGGB || encoding == ENCODING_BAYER_BGGR
+              || encoding == ENCODING_BAYER_GBRG || encoding == ENCODING_BAYER_GRBG) {
+            int evenRow = y & ~1;
+            int oddRow = Math.min(evenRow + 1, height - 1);
+            data.getBytes(offset + evenRow * step, row, 0, step);
+            data.getBytes(offset + oddRow * step, nextRow, 0, step);
+            convertBayerRow(row, nextRow, encoding, width, pixels, i * width);
+          } else {
+            data.getBytes(offset + y * step, row, 0, step);
+            convertRow(row, encoding, bigEndian, width, pixels, i * width);
+          }
+        }
+        bitmap.setPixels(pixels, 0, width, 0, batchRow, width, rows);
+      }
+      bitmap = null;
+      data = null;
+      return null;
+    }
+  }
+
+  public BitmapFromImage() {
+    this(null, null, 1);
+  }
+
+  /**
+   * @param bitmapPool
+   *          frames are converted into bitmaps taken from this pool, may be
+   *          {@code null} to always allocate a new bitmap
+   */
+  public BitmapFromImage(BitmapPool bitmapPool) {
+    this(bitmapPool, null, 1);
+  }
+
+  /**
+   * @param bitmapPool
+   *          frames are converted into bitmaps taken from this pool, may be
+   *          {@code null} to always allocate a new bitmap
+   * @param executorService
+   *          converts the row stripes of large frames, may be {@code null} to
+   *          convert on the calling thread
+   * @param stripes
+   *          the number of row stripes a large frame is split into, usually the
+   *          number of available cores
+   */
+  public BitmapFromImage(BitmapPool bitmapPool, ExecutorService executorService, int stripes) {
+    Preconditions.checkArgument(stripes > 0);
+    this.bitmapPool = bitmapPool;
+    this.executorService = executorService;
+    stripeConverters = new ArrayList<StripeConverter>(stripes);
+    for (int i = 0; i < stripes; i++) {
+      stripeConverters.add(new StripeConverter());
+    }
+  }
+
   @Override
-  public Bitmap call(sensor_msgs.Image message) {
-    Preconditions.checkArgument(message.getEncoding().equals("rgb8"));
-    Bitmap bitmap =
-            Bitmap.createBitmap(message.getWidth(), message.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-    for (int x = 0; x < message.getWidth(); x++) {
-      for (int y = 0; y < message.getHeight(); y++) {
-        ChannelBuffer data = message.getData();
-        byte red = data.getByte(y * message.getStep() + 3 * x);
-        byte green = data.getByte(y * message.getStep() + 3 * x + 1);
-        byte blue = data.getByte(y * message.getStep() + 3 * x + 2);
-        bitmap.setPixel(x, y, Color.argb(255, red & 0xFF, green & 0xFF, blue & 0xFF));
+  public synchronized Bitmap call(sensor_msgs.Image message) {
+    int encoding = getEncoding(message.getEncoding());
+    int width = message.getWidth();
+    int height = message.getHeight();
+    int step = message.getStep();
+    int bytesPerPixel = getBytesPerPixel(encoding);
+    Preconditions.checkArgument((long) step >= (long) width * bytesPerPixel,
+        "Image step of %s bytes is too small for %s pixels of %s bytes.", step, width,
+        bytesPerPixel);
+    int dataSize = message.getData().readableBytes();
+    Preconditions.checkArgument((long) step * height <= dataSize,
+        "Image data of %s bytes is too small for %s rows of %s bytes.", dataSize, height, step);
+    Bitmap bitmap = null;
+    if (bitmapPool != null) {
+      bitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+    }
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    int stripes = stripeConverters.size();
+    if (executorService == null || stripes == 1 || height < MINIMUM_PARALLEL_ROWS) {
+      StripeConverter converter = stripeConverters.get(0);
+      converter.prepare(bitmap, message, encoding, 0, height);
+      converter.call();
+      return bitmap;
+    }
+
+    int rowsPerStripe = (height + stripes - 1) / stripes;
+    for (int i = 0; i < stripes; i++) {
+      int firstRow = Math.min(i * rowsPerStripe, height);
+      int lastRow = Math.min(firstRow + rowsPerStripe, height);
+      stripeConverters.get(i).prepare(bitmap, message, encoding, firstRow, lastRow);
+    }
+    try {
+      for (Future<Void> future : executorService.invokeAll(stripeConverters)) {
+        future.get();
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RosRuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RosRuntimeException(e.getCause());
     }
     return bitmap;
   }
+
+  private static int getEncoding(String encoding) {
+    if (encoding.equals(RGB8)) {
+      return ENCODING_RGB8;
+    } else if (encoding.equals(BGR8)) {
+      return ENCODING_BGR8;
+    } else if (encoding.equals(RGBA8)) {
+      return ENCODING_RGBA8;
+    } else if (encoding.equals(BGRA8)) {
+      return ENCODING_BGRA8;
+    } else if (encoding.equals(MONO8)) {
+      return ENCODING_MONO8;
+    } else if (encoding.equals(MONO16)) {
+      return ENCODING_MONO16;
+    } else if (encoding.equals(YUV422)) {
+      return ENCODING_YUV422;
+    } else if (encoding.equals(BAYER_RGGB8)) {
+      return ENCODING_BAYER_RGGB;
+    } else if (encoding.equals(BAYER_BGGR8)) {
+      return ENCODING_BAYER_BGGR;
+    } else if (encoding.equals(BAYER_GBRG8)) {
+      return ENCODING_BAYER_GBRG;
+    } else if (encoding.equals(BAYER_GRBG8)) {
+      return ENCODING_BAYER_GRBG;
+    }
+    throw new IllegalArgumentException("Unsupported image encoding: " + encoding);
+  }
+
+  private static int getBytesPerPixel(int encoding) {
+    switch (encoding) {
+      case ENCODING_RGB8:
+      case ENCODING_BGR8:
+        return 3;
+      case ENCODING_RGBA8:
+      case ENCODING_BGRA8:
+        return 4;
+      case ENCODING_MONO16:
+      case ENCODING_YUV422:
+        return 2;
+      default:
+        return 1;
+    }
+  }
+
+  private static void convertRow(byte[] row, int encoding, boolean bigEndian, int width,
+      int[] pixels, int offset) {
+    switch (encoding) {
+      case ENCODING_RGB8:
+        for (int x = 0, i = 0; x < width; x++, i += 3) {
+          pixels[offset + x] = argb(255, row[i], row[i + 1], row[i + 2]);
+        }
+        break;
+      case ENCODING_BGR8:
+        for (int x = 0, i = 0; x < width; x++, i += 3) {
+          pixels[offset + x] = argb(255, row[i + 2], row[i + 1], row[i]);
+        }
+        break;
+      case ENCODING_RGBA8:
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+          pixels[offset + x] = argb(row[i + 3] & 0xFF, row[i], row[i + 1], row[i + 2]);
+        }
+        break;
+      case ENCODING_BGRA8:
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+          pixels[offset + x] = argb(row[i + 3] & 0xFF, row[i + 2], row[i + 1], row[i]);
+        }
+        break;
+      case ENCODING_MONO8:
+        for (int x = 0; x < width; x++) {
+          pixels[offset + x] = argb(255, row[x], row[x], row[x]);
+        }
+        break;
+      case ENCODING_MONO16:
+        // Only the most significant byte is displayed.
+        int msb = bigEndian ? 0 : 1;
+        for (int x = 0, i = msb; x < width; x++, i += 2) {
+          pixels[offset + x] = argb(255, row[i], row[i], row[i]);
+        }
+        break;
+      case ENCODING_YUV422:
+        // UYVY: two pixels share one pair of chroma samples.
+        for (int x = 0, i = 0; x < width; x += 2, i += 4) {
+          int u = (row[i] & 0xFF) - 128;
+          int v = (row[i + 2] & 0xFF) - 128;
+          pixels[offset + x] = yuvToArgb(row[i + 1] & 0xFF, u, v);
+          if (x + 1 < width) {
+            pixels[offset + x + 1] = yuvToArgb(row[i + 3] & 0xFF, u, v);
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException();
+    }
+  }
+
+  /**
+   * Converts one row of a Bayer image by nearest neighbor interpolation over the
+   * 2x2 block that contains each pixel.
+   */
+  private static void convertBayerRow(byte[] evenRow, byte[] oddRow, int encoding, int width,
+      int[] pixels, int offset) {
+    for (int x = 0; x < width; x += 2) {
+      int right = Math.min(x + 1, width - 1);
+      int topLeft = evenRow[x] & 0xFF;
+      int topRight = evenRow[right] & 0xFF;
+      int bottomLeft = oddRow[x] & 0xFF;
+      int bottomRight = oddRow[right] & 0xFF;
+      int red;
+      int green;
+      int blue;
+      switch (encoding) {
+        case ENCODING_BAYER_RGGB:
+          red = topLeft;
+          green = (topRight + bottomLeft) >> 1;
+          blue = bottomRight;
+          break;
+        case ENCODING_BAYER_BGGR:
+          blue = topLeft;
+          green = (topRight + bottomLeft) >> 1;
+          red = bottomRight;
+          break;
+        case ENCODING_BAYER_GBRG:
+          blue = topRight;
+          green = (topLeft + bottomRight) >> 1;
+          red = bottomLeft;
+          break;
+        case ENCODING_BAYER_GRBG:
+          red = topRight;
+          green = (topLeft + bottomRight) >> 1;
+          blue = bottomLeft;
+          break;
+        default:
+          throw new IllegalArgumentException();
+      }
+      int pixel = 0xFF000000 | (red << 16) | (green << 8) | blue;
+      pixels[offset + x] = pixel;
+      if (x + 1 < width) {
+        pixels[offset + x + 1] = pixel;
+      }
+    }
+  }
+
+  private static int argb(int alpha, byte red, byte green, byte blue) {
+    return (alpha << 24) | ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+  }
+
+  private static int yuvToArgb(int y, int u, int v) {
+    // ITU-R BT.601 in 10 bit fixed point.
+    int red = y + ((1436 * v) >> 10);
+    int green = y - ((352 * u + 731 * v) >> 10);
+    int blue = y + ((1815 * u) >> 10);
+    return 0xFF000000 | (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.content.ComponentCallbacks2;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the memory held by the bitmaps of all image views and bitmap pools of
+ * the process.
+ * <p>
+ * Consumers register themselves and are kept in least recently used order.
+ * When the total exceeds the budget, or the system asks the process to trim its
+ * memory, spare bitmaps held by {@link BitmapPool}s are released first, then the
+ * least recently used of the remaining consumers are asked to release bitmaps.
+ * Once the budget is exceeded, usage is trimmed down to a lower mark so that
+ * the next few frames do not immediately trigger another trim.
+ * Consumers are only weakly referenced.
+ * <p>
+ * The budget only counts the bitmaps held by registered consumers, i.e. pooled
+ * bitmaps and the frames of image views. Bitmaps allocated anywhere else in the
+ * process are not accounted for.
+ */
+public class BitmapMemoryBudget {
+
+  private static final BitmapMemoryBudget INSTANCE = new BitmapMemoryBudget();
+
+  // Fraction of the maximum heap size used as the default budget.
+  private static final int DEFAULT_BUDGET_DIVISOR = 8;
+
+  // Once over budget, usage is trimmed down to this fraction of the budget.
+  private static final float LOW_WATER_MARK = 0.75f;
+
+  /**
+   * Holds bitmaps that can be released on demand.
+   */
+  public interface Consumer {
+
+    /**
+     * @return the number of bytes currently held in bitmaps
+     */
+    long getBitmapBytes();
+
+    /**
+     * Releases bitmaps that are not needed right now, e.g. pooled bitmaps or
+     * the frame of a hidden view.
+     *
+     * @param bytes
+     *          the number of bytes that should be released
+     * @return the number of bytes actually released
+     */
+    long trimBitmapMemory(long bytes);
+  }
+
+  // Ordered from least to most recently used.
+  private final List<WeakReference<Consumer>> consumers;
+
+  private long budget;
+
+  public static BitmapMemoryBudget getInstance() {
+    return INSTANCE;
+  }
+
+  private BitmapMemoryBudget() {
+    consumers = new ArrayList<WeakReference<Consumer>>();
+    budget = Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR;
+  }
+
+  /**
+   * @param budget
+   *          the number of bytes all registered consumers may hold together,
+   *          one eighth of the maximum heap size by default
+   */
+  public void setBudget(long budget) {
+    Preconditions.checkArgument(budget >= 0);
+    synchronized (this) {
+      this.budget = budget;
+    }
+    enforce();
+  }
+
+  public synchronized long getBudget() {
+    return budget;
+  }
+
+  public synchronized void register(Consumer consumer) {
+    if (indexOf(consumer) < 0) {
+      consumers.add(new WeakReference<Consumer>(consumer));
+    }
+  }
+
+  public synchronized void unregister(Consumer consumer) {
+    int index = indexOf(consumer);
+    if (index >= 0) {
+      consumers.remove(index);
+    }
+  }
+
+  /**
+   * Marks the consumer as the most recently used one.
+   */
+  public synchronized void touch(Consumer consumer) {
+    int index = indexOf(consumer);
+    if (index >= 0 && index < consumers.size() - 1) {
+      consumers.add(consumers.remove(index));
+    }
+  }
+
+  /**
+   * @return the number of bytes held by all registered consumers
+   */
+  public synchronized long getUsage() {
+    long usage = 0;
+    for (int i = consumers.size() - 1; i >= 0; i--) {
+      Consumer consumer = consumers.get(i).get();
+      if (consumer == null) {
+        consumers.remove(i);
+      } else {
+        usage += consumer.getBitmapBytes();
+      }
+    }
+    return usage;
+  }
+
+  /**
+   * Trims consumers down to the low water mark if the usage exceeds the budget.
+   * Does nothing while the usage fits the budget.
+   */
+  public void enforce() {
+    long excess;
+    synchronized (this) {
+      long usage = getUsage();
+      if (usage <= budget) {
+        return;
+      }
+      excess = usage - (long) (budget * LOW_WATER_MARK);
+    }
+    trim(excess);
+  }
+
+  /**
+   * To be called from {@link ComponentCallbacks2#onTrimMemory(int)}.
+   */
+  public void onTrimMemory(int level) {
+    long usage = getUsage();
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      trim(usage);
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      trim(usage / 2);
+    } else {
+      enforce();
+    }
+  }
+
+  private synchronized void trim(long bytes) {
+    // Spare bitmaps in pools are released before the frames views still hold.
+    long remaining = trim(bytes, true);
+    if (remaining > 0) {
+      trim(remaining, false);
+    }
+  }
+
+  private long trim(long bytes, boolean pools) {
+    long remaining = bytes;
+    for (int i = 0; i < consumers.size() && remaining > 0; i++) {
+      Consumer consumer = consumers.get(i).get();
+      if (consumer != null && (consumer instanceof BitmapPool) == pools) {
+        remaining -= consumer.trimBitmapMemory(remaining);
+      }
+    }
+    return remaining;
+  }
+
+  private int indexOf(Consumer consumer) {
+    for (int i = 0; i < consumers.size(); i++) {
+      if (consumers.get(i).get() == consumer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
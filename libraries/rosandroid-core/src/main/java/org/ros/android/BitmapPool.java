@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of mutable {@link Bitmap}s keyed by their size and configuration.
+ * <p>
+ * Decoders take bitmaps out of the pool with {@link #get(int, int, Bitmap.Config)}
+ * and decode into them through {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ * A bitmap must only be returned with {@link #put(Bitmap)} once nothing draws it
+ * anymore, e.g. after a view has swapped it out for the next frame.
+ * <p>
+ * Pools register with the {@link BitmapMemoryBudget}, which may release pooled
+ * bitmaps when memory runs low.
+ */
+public class BitmapPool implements BitmapMemoryBudget.Consumer {
+
+  private static final int DEFAULT_MAXIMUM_SIZE = 4;
+
+  private final int maximumSize;
+  private final List<Bitmap> bitmaps;
+
+  private long hits;
+  private long misses;
+
+  public BitmapPool() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * @param maximumSize
+   *          the maximum number of bitmaps kept in the pool
+   */
+  public BitmapPool(int maximumSize) {
+    Preconditions.checkArgument(maximumSize > 0);
+    this.maximumSize = maximumSize;
+    bitmaps = new ArrayList<Bitmap>(maximumSize);
+    BitmapMemoryBudget.getInstance().register(this);
+  }
+
+  /**
+   * @return a pooled bitmap of exactly the requested size and configuration, or
+   *         {@code null} if none is available
+   */
+  public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+    for (int i = bitmaps.size() - 1; i >= 0; i--) {
+      Bitmap bitmap = bitmaps.get(i);
+      if (bitmap.getWidth() == width && bitmap.getHeight() == height
+          && bitmap.getConfig() == config) {
+        bitmaps.remove(i);
+        hits++;
+        return bitmap;
+      }
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Returns a bitmap to the pool. Immutable or recycled bitmaps are ignored. If
+   * the pool is full the oldest pooled bitmap is dropped.
+   */
+  public void put(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    synchronized (this) {
+      for (int i = 0; i < bitmaps.size(); i++) {
+        if (bitmaps.get(i) == bitmap) {
+          return;
+        }
+      }
+      if (bitmaps.size() == maximumSize) {
+        bitmaps.remove(0);
+      }
+      bitmaps.add(bitmap);
+    }
+    BitmapMemoryBudget budget = BitmapMemoryBudget.getInstance();
+    budget.touch(this);
+    budget.enforce();
+  }
+
+  public synchronized void clear() {
+    bitmaps.clear();
+  }
+
+  @Override
+  public synchronized long getBitmapBytes() {
+    long bytes = 0;
+    for (int i = 0; i < bitmaps.size(); i++) {
+      bytes += bitmaps.get(i).getByteCount();
+    }
+    return bytes;
+  }
+
+  /**
+   * Releases the oldest pooled bitmaps first.
+   */
+  @Override
+  public synchronized long trimBitmapMemory(long bytes) {
+    long released = 0;
+    while (released < bytes && !bitmaps.isEmpty()) {
+      Bitmap bitmap = bitmaps.remove(0);
+      released += bitmap.getByteCount();
+      bitmap.recycle();
+    }
+    return released;
+  }
+
+  public synchronized int size() {
+    return bitmaps.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+
+import java.io.InputStream;
+
+/**
+ * Hands the readable bytes of a {@link ChannelBuffer} to decoders without
+ * copying them.
+ * <p>
+ * Heap buffers are read in place from their backing array, see
+ * {@link #getArrayOffset(ChannelBuffer)}. Direct and composite buffers have no
+ * single backing array and are read through a stream instead, see
+ * {@link #newInputStream(ChannelBuffer)}.
+ */
+final class ChannelBufferStreams {
+
+  private ChannelBufferStreams() {
+  }
+
+  /**
+   * Must only be called if {@link ChannelBuffer#hasArray()} returns
+   * {@code true}.
+   *
+   * @return the offset of the first readable byte in
+   *         {@link ChannelBuffer#array()}
+   */
+  static int getArrayOffset(ChannelBuffer buffer) {
+    return buffer.arrayOffset() + buffer.readerIndex();
+  }
+
+  /**
+   * @return a stream over exactly the readable bytes of the buffer, which
+   *         leaves the reader index of the buffer untouched
+   */
+  static InputStream newInputStream(ChannelBuffer buffer) {
+    return new ChannelBufferInputStream(buffer.duplicate());
+  }
+}
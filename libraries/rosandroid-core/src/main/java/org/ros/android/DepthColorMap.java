@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Color;
+
+/**
+ * Maps depth values to colors through precomputed lookup tables.
+ * <p>
+ * Depths between the minimum and maximum range are mapped onto a blue to red
+ * color ramp. Invalid depths, i.e. 0 or NaN, are black and depths outside of
+ * the range are clamped.
+ */
+public class DepthColorMap {
+
+  private static final int COLORS = 256;
+  private static final int MILLIMETER_VALUES = 65536;
+  private static final int INVALID_COLOR = Color.BLACK;
+
+  private final int[] colors;
+
+  private volatile Range range;
+
+  /**
+   * An immutable depth range together with its millimeter lookup table. A new
+   * range is published as a whole, so a conversion always sees a consistent
+   * range and table, even while the range is changed on another thread.
+   */
+  private static final class Range {
+
+    private final float minimumDepth;
+    private final float maximumDepth;
+    private final float scale;
+    private final int[] millimeterColors;
+
+    private Range(float minimumDepth, float maximumDepth, int[] colors) {
+      this.minimumDepth = minimumDepth;
+      this.maximumDepth = maximumDepth;
+      scale = (COLORS - 1) / (maximumDepth - minimumDepth);
+      millimeterColors = new int[MILLIMETER_VALUES];
+      millimeterColors[0] = INVALID_COLOR;
+      for (int i = 1; i < MILLIMETER_VALUES; i++) {
+        millimeterColors[i] = getColor(i / 1000.f, colors);
+      }
+    }
+
+    private int getColor(float depth, int[] colors) {
+      if (depth != depth || depth <= 0) {
+        return INVALID_COLOR;
+      }
+      int index = (int) ((depth - minimumDepth) * scale);
+      return colors[index < 0 ? 0 : (index >= COLORS ? COLORS - 1 : index)];
+    }
+  }
+
+  /**
+   * @param minimumDepth
+   *          the depth in meters mapped to the first color
+   * @param maximumDepth
+   *          the depth in meters mapped to the last color
+   */
+  public DepthColorMap(float minimumDepth, float maximumDepth) {
+    colors = new int[COLORS];
+    for (int i = 0; i < COLORS; i++) {
+      colors[i] = jet((float) i / (COLORS - 1));
+    }
+    setRange(minimumDepth, maximumDepth);
+  }
+
+  /**
+   * Changes the depth range and rebuilds the lookup tables.
+   */
+  public void setRange(float minimumDepth, float maximumDepth) {
+    Preconditions.checkArgument(maximumDepth > minimumDepth);
+    range = new Range(minimumDepth, maximumDepth, colors);
+  }
+
+  public float getMinimumDepth() {
+    return range.minimumDepth;
+  }
+
+  public float getMaximumDepth() {
+    return range.maximumDepth;
+  }
+
+  /**
+   * @param depth
+   *          the depth in meters
+   */
+  public int getColor(float depth) {
+    return range.getColor(depth, colors);
+  }
+
+  /**
+   * Converts a row of unsigned 16 bit depths in millimeters.
+   */
+  public void convertMillimeters(int[] depths, int count, int[] pixels, int offset) {
+    int[] millimeterColors = range.millimeterColors;
+    for (int i = 0; i < count; i++) {
+      pixels[offset + i] = millimeterColors[depths[i] & 0xFFFF];
+    }
+  }
+
+  /**
+   * Converts a row of depths in meters.
+   */
+  public void convertMeters(float[] depths, int count, int[] pixels, int offset) {
+    Range currentRange = range;
+    for (int i = 0; i < count; i++) {
+      pixels[offset + i] = currentRange.getColor(depths[i], colors);
+    }
+  }
+
+  private static int jet(float value) {
+    float red = Math.min(Math.max(1.5f - Math.abs(4 * value - 3), 0), 1);
+    float green = Math.min(Math.max(1.5f - Math.abs(4 * value - 2), 0), 1);
+    float blue = Math.min(Math.max(1.5f - Math.abs(4 * value - 1), 0), 1);
+    return Color.rgb((int) (red * 255), (int) (green * 255), (int) (blue * 255));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.exception.RosRuntimeException;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes non-interlaced 8 and 16 bit grayscale PNG images into raw samples.
+ * <p>
+ * {@link android.graphics.BitmapFactory} reduces 16 bit PNGs to 8 bits, which
+ * loses the precision of compressed depth images. All buffers are reused
+ * between images.
+ */
+final class GrayscalePngDecoder {
+
+  private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+  private static final int IHDR = 0x49484452;
+  private static final int IDAT = 0x49444154;
+  private static final int IEND = 0x49454E44;
+  private static final int COLOR_TYPE_GRAYSCALE = 0;
+
+  private final Inflater inflater;
+
+  private byte[] compressed;
+  private byte[] previousRow;
+  private byte[] currentRow;
+  private int[] samples;
+  private int width;
+  private int height;
+  private int bytesPerSample;
+  private int rowLength;
+  private int rowsDecoded;
+  private int rowBytesFilled;
+
+  GrayscalePngDecoder() {
+    inflater = new Inflater();
+    compressed = new byte[0];
+  }
+
+  /**
+   * Decodes the PNG stored between the reader and writer index of the buffer.
+   * The samples are available from {@link #getSamples()} until the next call.
+   */
+  void decode(ChannelBuffer buffer) {
+    int index = buffer.readerIndex();
+    int end = buffer.writerIndex();
+    Preconditions.checkArgument(end - index > 8 && buffer.getLong(index) == SIGNATURE,
+        "Not a PNG image.");
+    index += 8;
+    inflater.reset();
+    rowsDecoded = 0;
+    rowBytesFilled = 0;
+    while (index + 8 <= end) {
+      int length = buffer.getInt(index);
+      int type = buffer.getInt(index + 4);
+      int data = index + 8;
+      Preconditions.checkArgument(length >= 0 && data + length <= end, "Truncated PNG image.");
+      if (type == IHDR) {
+        readHeader(buffer, data);
+      } else if (type == IDAT) {
+        inflate(buffer, data, length);
+      } else if (type == IEND) {
+        break;
+      }
+      // Skip the data and the CRC.
+      index = data + length + 4;
+    }
+    Preconditions.checkArgument(rowsDecoded == height, "Incomplete PNG image.");
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return the decoded samples in row major order, only the first
+   *         {@code width * height} are valid
+   */
+  int[] getSamples() {
+    return samples;
+  }
+
+  /**
+   * Releases the native zlib stream. The decoder must not be used afterwards.
+   */
+  void release() {
+    inflater.end();
+  }
+
+  private void readHeader(ChannelBuffer buffer, int index) {
+    width = buffer.getInt(index);
+    height = buffer.getInt(index + 4);
+    int bitDepth = buffer.getUnsignedByte(index + 8);
+    int colorType = buffer.getUnsignedByte(index + 9);
+    int interlace = buffer.getUnsignedByte(index + 12);
+    Preconditions.checkArgument(colorType == COLOR_TYPE_GRAYSCALE && interlace == 0
+        && (bitDepth == 8 || bitDepth == 16), "Unsupported PNG image.");
+    bytesPerSample = bitDepth / 8;
+    rowLength = width * bytesPerSample;
+    if (currentRow == null || currentRow.length < rowLength + 1) {
+      previousRow = new byte[rowLength + 1];
+      currentRow = new byte[rowLength + 1];
+    }
+    if (samples == null || samples.length < width * height) {
+      samples = new int[width * height];
+    }
+  }
+
+  private void inflate(ChannelBuffer buffer, int index, int length) {
+    Preconditions.checkState(currentRow != null, "Missing PNG header.");
+    if (compressed.length < length) {
+      compressed = new byte[length];
+    }
+    buffer.getBytes(index, compressed, 0, length);
+    inflater.setInput(compressed, 0, length);
+    try {
+      while (rowsDecoded < height) {
+        int inflated =
+            inflater.inflate(currentRow, rowBytesFilled, rowLength + 1 - rowBytesFilled);
+        rowBytesFilled += inflated;
+        if (rowBytesFilled == rowLength + 1) {
+          unfilterRow();
+          rowBytesFilled = 0;
+        } else if (inflated == 0) {
+          Preconditions.checkArgument(!inflater.needsDictionary(), "Invalid PNG image.");
+          break;
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new RosRuntimeException(e);
+    }
+  }
+
+  private void unfilterRow() {
+    byte[] row = currentRow;
+    byte[] previous = previousRow;
+    int filter = row[0];
+    int bpp = bytesPerSample;
+    boolean first = rowsDecoded == 0;
+    for (int i = 1; i <= rowLength; i++) {
+      int left = i > bpp ? row[i - bpp] & 0xFF : 0;
+      int up = first ? 0 : previous[i] & 0xFF;
+      int upLeft = i > bpp && !first ? previous[i - bpp] & 0xFF : 0;
+      int predictor;
+      switch (filter) {
+        case 0:
+          predictor = 0;
+          break;
+        case 1:
+          predictor = left;
+          break;
+        case 2:
+          predictor = up;
+          break;
+        case 3:
+          predictor = (left + up) >> 1;
+          break;
+        case 4:
+          predictor = paeth(left, up, upLeft);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown PNG filter: " + filter);
+      }
+      row[i] = (byte) (row[i] + predictor);
+    }
+
+    int offset = rowsDecoded * width;
+    if (bpp == 2) {
+      for (int x = 0, i = 1; x < width; x++, i += 2) {
+        samples[offset + x] = (row[i] & 0xFF) << 8 | (row[i + 1] & 0xFF);
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        samples[offset + x] = row[x + 1] & 0xFF;
+      }
+    }
+    currentRow = previous;
+    previousRow = row;
+    rowsDecoded++;
+  }
+
+  private static int paeth(int left, int up, int upLeft) {
+    int estimate = left + up - upLeft;
+    int leftDistance = Math.abs(estimate - left);
+    int upDistance = Math.abs(estimate - up);
+    int upLeftDistance = Math.abs(estimate - upLeft);
+    if (leftDistance <= upDistance && leftDistance <= upLeftDistance) {
+      return left;
+    }
+    return upDistance <= upLeftDistance ? up : upLeft;
+  }
+}
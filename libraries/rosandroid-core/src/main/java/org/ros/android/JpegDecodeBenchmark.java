@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the decode time of {@link BitmapFactory} and the
+ * {@link NativeJpegDecoder} on recorded sensor_msgs/CompressedImage frames.
+ * <p>
+ * Run it on the target device with frames recorded from the camera that is
+ * going to be displayed, decode times depend heavily on resolution and
+ * chroma subsampling.
+ */
+public class JpegDecodeBenchmark {
+
+  private final List<sensor_msgs.CompressedImage> frames;
+
+  public static final class Result {
+
+    private final int frames;
+    private final long bitmapFactoryNanos;
+    private final long nativeNanos;
+
+    private Result(int frames, long bitmapFactoryNanos, long nativeNanos) {
+      this.frames = frames;
+      this.bitmapFactoryNanos = bitmapFactoryNanos;
+      this.nativeNanos = nativeNanos;
+    }
+
+    public int getFrameCount() {
+      return frames;
+    }
+
+    public float getBitmapFactoryMillisPerFrame() {
+      return bitmapFactoryNanos / 1e6f / frames;
+    }
+
+    /**
+     * @return the mean native decode time, or -1 if the native decoder is not
+     *         available
+     */
+    public float getNativeMillisPerFrame() {
+      return nativeNanos < 0 ? -1 : nativeNanos / 1e6f / frames;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%d frames, BitmapFactory %.2f ms, libjpeg-turbo %.2f ms",
+          frames, getBitmapFactoryMillisPerFrame(), getNativeMillisPerFrame());
+    }
+  }
+
+  public JpegDecodeBenchmark(List<sensor_msgs.CompressedImage> frames) {
+    Preconditions.checkArgument(!frames.isEmpty());
+    this.frames = frames;
+  }
+
+  /**
+   * Decodes every frame {@code iterations} times with both backends at the
+   * given sample size. Bitmaps are reused between frames of the same size, so
+   * only decoding is measured.
+   */
+  public Result run(int iterations, int sampleSize) {
+    Preconditions.checkArgument(iterations > 0);
+    BitmapPool bitmapPool = new BitmapPool();
+    try {
+      long bitmapFactoryNanos = runBitmapFactory(iterations, sampleSize, bitmapPool);
+      bitmapPool.clear();
+      long nativeNanos = -1;
+      if (NativeJpegDecoder.isAvailable()) {
+        nativeNanos = runNative(iterations, sampleSize, bitmapPool);
+      }
+      return new Result(frames.size() * iterations, bitmapFactoryNanos, nativeNanos);
+    } finally {
+      bitmapPool.clear();
+      BitmapMemoryBudget.getInstance().unregister(bitmapPool);
+    }
+  }
+
+  private long runBitmapFactory(int iterations, int sampleSize, BitmapPool bitmapPool) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inMutable = true;
+    options.inSampleSize = sampleSize;
+    long nanos = 0;
+    for (int i = 0; i < iterations; i++) {
+      for (sensor_msgs.CompressedImage frame : frames) {
+        ChannelBuffer buffer = frame.getData();
+        byte[] data = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), data);
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inJustDecodeBounds = false;
+        options.inBitmap =
+            bitmapPool.get(NativeJpegDecoder.getScaledDimension(options.outWidth, sampleSize),
+                NativeJpegDecoder.getScaledDimension(options.outHeight, sampleSize),
+                Bitmap.Config.ARGB_8888);
+        long startNanos = System.nanoTime();
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        nanos += System.nanoTime() - startNanos;
+        options.inBitmap = null;
+        bitmapPool.put(bitmap);
+      }
+    }
+    return nanos;
+  }
+
+  private long runNative(int iterations, int sampleSize, BitmapPool bitmapPool) {
+    NativeJpegDecoder decoder = new NativeJpegDecoder();
+    long nanos = 0;
+    try {
+      for (int i = 0; i < iterations; i++) {
+        for (sensor_msgs.CompressedImage frame : frames) {
+          ChannelBuffer buffer = frame.getData();
+          Preconditions.checkState(decoder.readHeader(buffer), "Not a JPEG frame.");
+          int width = NativeJpegDecoder.getScaledDimension(decoder.getWidth(), sampleSize);
+          int height = NativeJpegDecoder.getScaledDimension(decoder.getHeight(), sampleSize);
+          Bitmap bitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+          if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+          }
+          long startNanos = System.nanoTime();
+          boolean decoded = decoder.decode(buffer, bitmap, sampleSize);
+          nanos += System.nanoTime() - startNanos;
+          Preconditions.checkState(decoded, "Failed to decode a frame.");
+          bitmapPool.put(bitmap);
+        }
+      }
+    } finally {
+      decoder.release();
+    }
+    return nanos;
+  }
+}
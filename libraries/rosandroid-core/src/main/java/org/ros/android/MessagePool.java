@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+/**
+ * Reuses the messages of a publisher once they have been serialized.
+ * <p>
+ * Every message of the pool is in one of three states. A message
+ * {@link #acquire()}d by the caller is leased. Once passed to
+ * {@link #publish(Object)} it is published and belongs to rosjava until the
+ * {@link MessageSerializationTracker} reports it as serialized, which is after
+ * it has been written for all subscribers at once. It is then free and handed
+ * out again by the next {@link #acquire()}.
+ * <p>
+ * The pool holds at most {@code capacity} messages. Published messages may
+ * never be serialized, e.g. when they are dropped from a full outgoing queue.
+ * If no message is free, the oldest published one is therefore forgotten and
+ * left to the garbage collector in favor of a new message. Without a tracker
+ * installed for the node, see
+ * {@link MessageSerializationTracker#install(org.ros.node.NodeConfiguration)},
+ * that happens for every message and the pool degrades to
+ * {@link Publisher#newMessage()}.
+ * <p>
+ * Reused messages keep the contents they were last published with, so every
+ * field has to be set again. Latched publishers serialize their last message
+ * again for every new subscriber and cannot be pooled.
+ *
+ * @param <T>
+ *          the message type
+ */
+public class MessagePool<T> implements MessageSerializationTracker.Listener {
+
+  private static final int FREE = 0;
+  private static final int LEASED = 1;
+  private static final int PUBLISHED = 2;
+
+  private final Publisher<T> publisher;
+  private final boolean recycling;
+  private final Object[] messages;
+  private final int[] states;
+  // Orders published messages, so the oldest one can be forgotten first.
+  private final long[] publishSequences;
+
+  private int size;
+  private long nextPublishSequence;
+  private long allocatedMessages;
+
+  /**
+   * @param capacity
+   *          the number of messages to keep, at least the number leased at the
+   *          same time plus the length of the outgoing queue that is expected
+   *          to be in use
+   */
+  public MessagePool(ConnectedNode connectedNode, Publisher<T> publisher, int capacity) {
+    Preconditions.checkArgument(capacity > 0);
+    Preconditions.checkArgument(!publisher.getLatchMode(),
+        "Messages of latched publishers cannot be reused.");
+    this.publisher = publisher;
+    recycling = MessageSerializationTracker.isInstalled(connectedNode);
+    messages = new Object[capacity];
+    states = new int[capacity];
+    publishSequences = new long[capacity];
+    if (recycling) {
+      MessageSerializationTracker.getInstance().addListener(publisher.getTopicMessageType(),
+          this);
+    }
+  }
+
+  /**
+   * Leases a message. It must be passed to {@link #publish(Object)} or
+   * {@link #release(Object)} afterwards.
+   *
+   * @throws IllegalStateException
+   *           if all messages of the pool are leased
+   */
+  public synchronized T acquire() {
+    int index = -1;
+    for (int i = 0; i < size; i++) {
+      if (states[i] == FREE) {
+        states[i] = LEASED;
+        @SuppressWarnings("unchecked")
+        T message = (T) messages[i];
+        return message;
+      }
+      if (states[i] == PUBLISHED
+          && (index < 0 || publishSequences[i] < publishSequences[index])) {
+        index = i;
+      }
+    }
+    if (size < messages.length) {
+      index = size++;
+    }
+    Preconditions.checkState(index >= 0, "All messages of the pool are leased.");
+    T message = publisher.newMessage();
+    messages[index] = message;
+    states[index] = LEASED;
+    allocatedMessages++;
+    return message;
+  }
+
+  /**
+   * Publishes a leased message. It is handed out again once it has been
+   * serialized.
+   */
+  public void publish(T message) {
+    synchronized (this) {
+      int index = indexOf(message);
+      Preconditions.checkArgument(index >= 0 && states[index] == LEASED,
+          "The message is not leased from this pool.");
+      // Set before publishing, the message may be serialized right away.
+      states[index] = PUBLISHED;
+      publishSequences[index] = nextPublishSequence++;
+    }
+    publisher.publish(message);
+  }
+
+  /**
+   * Returns a leased message that is not going to be published.
+   */
+  public synchronized void release(T message) {
+    int index = indexOf(message);
+    Preconditions.checkArgument(index >= 0 && states[index] == LEASED,
+        "The message is not leased from this pool.");
+    states[index] = FREE;
+  }
+
+  @Override
+  public synchronized void onMessageSerialized(Object message) {
+    // Messages of other pools and publishers of the same type are ignored.
+    int index = indexOf(message);
+    if (index >= 0 && states[index] == PUBLISHED) {
+      states[index] = FREE;
+    }
+  }
+
+  /**
+   * @return the number of messages created so far, which stops growing in
+   *         steady state if messages are recycled
+   */
+  public synchronized long getAllocatedMessageCount() {
+    return allocatedMessages;
+  }
+
+  /**
+   * Stops recycling messages. Must be called when the publisher is shut down.
+   */
+  public void shutdown() {
+    if (recycling) {
+      MessageSerializationTracker.getInstance().removeListener(
+          publisher.getTopicMessageType(), this);
+    }
+  }
+
+  private int indexOf(Object message) {
+    for (int i = 0; i < size; i++) {
+      if (messages[i] == message) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
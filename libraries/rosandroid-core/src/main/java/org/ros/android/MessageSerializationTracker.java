@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.message.MessageDeserializer;
+import org.ros.message.MessageSerializationFactory;
+import org.ros.message.MessageSerializer;
+import org.ros.node.Node;
+import org.ros.node.NodeConfiguration;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells publishers when a published message has been serialized.
+ * <p>
+ * rosjava serializes a published message once into an outgoing buffer that is
+ * then written to every subscriber, after which the message itself is no
+ * longer referenced. Publishers can therefore reuse the message, or buffers it
+ * points to, once it has been serialized. Messages may also never be
+ * serialized, e.g. when they are dropped from a full outgoing queue, so
+ * listeners must not rely on being notified for every message.
+ * <p>
+ * Notifications only happen for nodes whose {@link NodeConfiguration} went
+ * through {@link #install(NodeConfiguration)}. Latched publishers serialize
+ * their last message again for every new subscriber and must not reuse
+ * messages.
+ */
+public class MessageSerializationTracker {
+
+  private static final MessageSerializationTracker INSTANCE = new MessageSerializationTracker();
+
+  public interface Listener {
+
+    /**
+     * Called on the publishing thread of rosjava right after the message has
+     * been serialized. Must not block.
+     */
+    void onMessageSerialized(Object message);
+  }
+
+  private final ConcurrentMap<String, List<Listener>> listeners;
+
+  private static final class TrackingMessageSerializationFactory implements
+      MessageSerializationFactory {
+
+    private final MessageSerializationFactory factory;
+
+    private TrackingMessageSerializationFactory(MessageSerializationFactory factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    public <T> MessageSerializer<T> newMessageSerializer(String messageType) {
+      return new TrackingMessageSerializer<T>(messageType,
+          factory.<T>newMessageSerializer(messageType));
+    }
+
+    @Override
+    public <T> MessageDeserializer<T> newMessageDeserializer(String messageType) {
+      return factory.newMessageDeserializer(messageType);
+    }
+
+    @Override
+    public <T> MessageSerializer<T> newServiceRequestSerializer(String serviceType) {
+      return factory.newServiceRequestSerializer(serviceType);
+    }
+
+    @Override
+    public <T> MessageDeserializer<T> newServiceRequestDeserializer(String serviceType) {
+      return factory.newServiceRequestDeserializer(serviceType);
+    }
+
+    @Override
+    public <T> MessageSerializer<T> newServiceResponseSerializer(String serviceType) {
+      return factory.newServiceResponseSerializer(serviceType);
+    }
+
+    @Override
+    public <T> MessageDeserializer<T> newServiceResponseDeserializer(String serviceType) {
+      return factory.newServiceResponseDeserializer(serviceType);
+    }
+  }
+
+  private static final class TrackingMessageSerializer<T> implements MessageSerializer<T> {
+
+    private final String messageType;
+    private final MessageSerializer<T> serializer;
+
+    private TrackingMessageSerializer(String messageType, MessageSerializer<T> serializer) {
+      this.messageType = messageType;
+      this.serializer = serializer;
+    }
+
+    @Override
+    public void serialize(T message, ChannelBuffer buffer) {
+      serializer.serialize(message, buffer);
+      INSTANCE.onMessageSerialized(messageType, message);
+    }
+  }
+
+  public static MessageSerializationTracker getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Makes nodes created with the configuration report serialized messages.
+   * Must be called before the node is executed. Installing twice has no
+   * effect.
+   */
+  public static NodeConfiguration install(NodeConfiguration nodeConfiguration) {
+    MessageSerializationFactory factory = nodeConfiguration.getMessageSerializationFactory();
+    if (!(factory instanceof TrackingMessageSerializationFactory)) {
+      nodeConfiguration.setMessageSerializationFactory(new TrackingMessageSerializationFactory(
+          factory));
+    }
+    return nodeConfiguration;
+  }
+
+  /**
+   * @return {@code true} if messages published by the node are reported
+   */
+  public static boolean isInstalled(Node node) {
+    return node.getMessageSerializationFactory() instanceof TrackingMessageSerializationFactory;
+  }
+
+  private MessageSerializationTracker() {
+    listeners = new ConcurrentHashMap<String, List<Listener>>();
+  }
+
+  /**
+   * @param messageType
+   *          the type of the messages to be notified about, e.g.
+   *          {@code sensor_msgs.CompressedImage._TYPE}
+   */
+  public void addListener(String messageType, Listener listener) {
+    Preconditions.checkNotNull(listener);
+    List<Listener> typeListeners = listeners.get(messageType);
+    if (typeListeners == null) {
+      listeners.putIfAbsent(messageType, new CopyOnWriteArrayList<Listener>());
+      typeListeners = listeners.get(messageType);
+    }
+    typeListeners.add(listener);
+  }
+
+  public void removeListener(String messageType, Listener listener) {
+    List<Listener> typeListeners = listeners.get(messageType);
+    if (typeListeners != null) {
+      typeListeners.remove(listener);
+    }
+  }
+
+  private void onMessageSerialized(String messageType, Object message) {
+    List<Listener> typeListeners = listeners.get(messageType);
+    if (typeListeners == null) {
+      return;
+    }
+    for (Listener listener : typeListeners) {
+      listener.onMessageSerialized(message);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Bitmap;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes JPEG images with libjpeg-turbo through the optional
+ * {@code rosandroid_jpeg} native library.
+ * <p>
+ * Images are decoded straight into the pixels of a locked ARGB_8888
+ * {@link Bitmap}, optionally scaled down by a power of two during decoding.
+ * Heap and direct buffers are read in place; composite buffers are first
+ * gathered into a reusable scratch array. If the native library is not
+ * packaged with the application, {@link #isAvailable()} returns {@code false}
+ * and callers should fall back to {@link android.graphics.BitmapFactory}.
+ * <p>
+ * Instances are not thread safe and must be {@link #release()}d.
+ */
+public class NativeJpegDecoder {
+
+  private static final boolean AVAILABLE = loadLibrary();
+
+  private final int[] header;
+
+  private long handle;
+  private byte[] scratch;
+
+  private static boolean loadLibrary() {
+    try {
+      System.loadLibrary("rosandroid_jpeg");
+      return true;
+    } catch (UnsatisfiedLinkError e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return {@code true} if the native library has been loaded
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * @return the size of a dimension decoded with the given sample size
+   */
+  public static int getScaledDimension(int dimension, int sampleSize) {
+    return (dimension + sampleSize - 1) / sampleSize;
+  }
+
+  public NativeJpegDecoder() {
+    Preconditions.checkState(AVAILABLE, "The rosandroid_jpeg library is not available.");
+    handle = nativeCreate();
+    Preconditions.checkState(handle != 0, "Failed to create a JPEG decompressor.");
+    header = new int[2];
+  }
+
+  /**
+   * Reads the size of the JPEG image between the reader and writer index of
+   * the buffer, see {@link #getWidth()} and {@link #getHeight()}.
+   *
+   * @return {@code false} if the buffer does not hold a valid JPEG header
+   */
+  public boolean readHeader(ChannelBuffer buffer) {
+    return decode(buffer, null, 1);
+  }
+
+  /**
+   * @return the width of the image read last
+   */
+  public int getWidth() {
+    return header[0];
+  }
+
+  /**
+   * @return the height of the image read last
+   */
+  public int getHeight() {
+    return header[1];
+  }
+
+  /**
+   * Decodes the JPEG image between the reader and writer index of the buffer.
+   *
+   * @param sampleSize
+   *          1, 2, 4 or 8 to scale the image down while decoding
+   * @param bitmap
+   *          a mutable ARGB_8888 bitmap of exactly the scaled image size
+   * @return {@code false} if decoding failed
+   */
+  public boolean decode(ChannelBuffer buffer, Bitmap bitmap, int sampleSize) {
+    Preconditions.checkState(handle != 0, "The decoder has been released.");
+    Preconditions.checkArgument(sampleSize == 1 || sampleSize == 2 || sampleSize == 4
+        || sampleSize == 8);
+    int length = buffer.readableBytes();
+    if (buffer.hasArray()) {
+      return nativeDecode(handle, buffer.array(), null,
+          buffer.arrayOffset() + buffer.readerIndex(), length, header, bitmap, sampleSize);
+    }
+    if (buffer.isDirect()) {
+      ByteBuffer byteBuffer = buffer.toByteBuffer();
+      if (byteBuffer.isDirect()) {
+        return nativeDecode(handle, null, byteBuffer, byteBuffer.position(), length, header,
+            bitmap, sampleSize);
+      }
+    }
+    if (scratch == null || scratch.length < length) {
+      scratch = new byte[length];
+    }
+    buffer.getBytes(buffer.readerIndex(), scratch, 0, length);
+    return nativeDecode(handle, scratch, null, 0, length, header, bitmap, sampleSize);
+  }
+
+  public void release() {
+    if (handle != 0) {
+      nativeDestroy(handle);
+      handle = 0;
+    }
+  }
+
+  private static native long nativeCreate();
+
+  private static native void nativeDestroy(long handle);
+
+  /**
+   * Reads the image size into {@code header} and, if {@code bitmap} is not
+   * {@code null}, decodes the image into it. Exactly one of {@code array} and
+   * {@code direct} is not {@code null}.
+   */
+  private static native boolean nativeDecode(long handle, byte[] array, ByteBuffer direct,
+      int offset, int length, int[] header, Bitmap bitmap, int sampleSize);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Rect;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Compresses NV21 frames to JPEG with libjpeg-turbo through the optional
+ * {@code rosandroid_jpeg} native library.
+ * <p>
+ * A crop rectangle of the frame is optionally scaled down, picking the
+ * nearest source sample, in the same pass that splits the interleaved chroma
+ * plane for the compressor. The JPEG image is written straight into the
+ * backing array of the output buffer; buffers without one are written
+ * through a reusable scratch array. If the native library is not packaged
+ * with the application, {@link #isAvailable()} returns {@code false} and
+ * callers should fall back to {@link android.graphics.YuvImage}.
+ * <p>
+ * Instances are not thread safe and must be {@link #release()}d.
+ */
+public class NativeJpegEncoder {
+
+  private static final boolean AVAILABLE = NativeJpegDecoder.isAvailable();
+
+  private long handle;
+  private byte[] scratch;
+
+  /**
+   * @return {@code true} if the native library has been loaded
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  public NativeJpegEncoder() {
+    Preconditions.checkState(AVAILABLE, "The rosandroid_jpeg library is not available.");
+    handle = nativeCreate();
+    Preconditions.checkState(handle != 0, "Failed to create a JPEG compressor.");
+  }
+
+  /**
+   * Compresses the crop rectangle of an NV21 frame, scaled to the given size,
+   * and appends the JPEG image to the buffer.
+   *
+   * @param crop
+   *          the rectangle to compress, with even coordinates
+   * @param width
+   *          the even width of the image, at most the width of the crop
+   * @param height
+   *          the even height of the image, at most the height of the crop
+   * @param quality
+   *          the JPEG quality from 1 to 100
+   * @return {@code false} if compression failed, the buffer is then unchanged
+   */
+  public boolean encode(byte[] data, int frameWidth, int frameHeight, Rect crop, int width,
+      int height, int quality, ChannelBuffer buffer) {
+    Preconditions.checkState(handle != 0, "The encoder has been released.");
+    Preconditions.checkArgument(data.length >= frameWidth * frameHeight * 3 / 2);
+    Preconditions.checkArgument(crop.left >= 0 && crop.top >= 0 && crop.right <= frameWidth
+        && crop.bottom <= frameHeight && ((crop.left | crop.top) & 1) == 0, "Invalid crop.");
+    Preconditions.checkArgument(width >= 2 && height >= 2 && ((width | height) & 1) == 0
+        && width <= crop.width() && height <= crop.height(), "Invalid size.");
+    Preconditions.checkArgument(quality >= 1 && quality <= 100);
+    int maximumSize = nativeGetMaximumSize(width, height);
+    buffer.ensureWritableBytes(maximumSize);
+    if (buffer.hasArray()) {
+      int size = nativeEncode(handle, data, frameWidth, frameHeight, crop.left, crop.top,
+          crop.width(), crop.height(), width, height, quality, buffer.array(),
+          buffer.arrayOffset() + buffer.writerIndex(), maximumSize);
+      if (size < 0) {
+        return false;
+      }
+      buffer.writerIndex(buffer.writerIndex() + size);
+      return true;
+    }
+    if (scratch == null || scratch.length < maximumSize) {
+      scratch = new byte[maximumSize];
+    }
+    int size = nativeEncode(handle, data, frameWidth, frameHeight, crop.left, crop.top,
+        crop.width(), crop.height(), width, height, quality, scratch, 0, maximumSize);
+    if (size < 0) {
+      return false;
+    }
+    buffer.writeBytes(scratch, 0, size);
+    return true;
+  }
+
+  public void release() {
+    if (handle != 0) {
+      nativeDestroy(handle);
+      handle = 0;
+    }
+  }
+
+  private static native long nativeCreate();
+
+  private static native void nativeDestroy(long handle);
+
+  /**
+   * @return the largest size of a JPEG image of the given size
+   */
+  private static native int nativeGetMaximumSize(int width, int height);
+
+  /**
+   * Writes at most {@code capacity} bytes to {@code output} at
+   * {@code offset}.
+   *
+   * @return the size of the JPEG image, or -1 if compression failed
+   */
+  private static native int nativeEncode(long handle, byte[] data, int frameWidth,
+      int frameHeight, int cropLeft, int cropTop, int cropWidth, int cropHeight, int width,
+      int height, int quality, byte[] output, int offset, int capacity);
+}
@@ -25,6 +25,7 @@ import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.topic.Publisher;
 
 import geometry_msgs.PoseStamped;
@@ -34,16 +35,21 @@ import geometry_msgs.PoseStamped;
  */
 public class OrientationPublisher extends AbstractNodeMain {
 
+  private static final int MESSAGE_POOL_CAPACITY = 4;
+
   private final SensorManager sensorManager;
 
   private OrientationListener orientationListener;
+  private MessagePool<geometry_msgs.PoseStamped> messagePool;
 
   private final class OrientationListener implements SensorEventListener {
 
-    private final Publisher<geometry_msgs.PoseStamped> publisher;
+    private final MessagePool<geometry_msgs.PoseStamped> messagePool;
+    private final float[] quaternion;
 
-    private OrientationListener(Publisher<geometry_msgs.PoseStamped> publisher) {
-      this.publisher = publisher;
+    private OrientationListener(MessagePool<geometry_msgs.PoseStamped> messagePool) {
+      this.messagePool = messagePool;
+      quaternion = new float[4];
     }
 
     @Override
@@ -53,16 +59,16 @@ public class OrientationPublisher extends AbstractNodeMain {
     @Override
     public void onSensorChanged(SensorEvent event) {
       if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-        float[] quaternion = new float[4];
         SensorManager.getQuaternionFromVector(quaternion, event.values);
-        PoseStamped pose = publisher.newMessage();
+        // Every field that is ever set is set again, so reused messages need no reset.
+        PoseStamped pose = messagePool.acquire();
         pose.getHeader().setFrameId("/map");
         pose.getHeader().setStamp(Time.fromMillis(System.currentTimeMillis()));
         pose.getPose().getOrientation().setW(quaternion[0]);
         pose.getPose().getOrientation().setX(quaternion[1]);
         pose.getPose().getOrientation().setY(quaternion[2]);
         pose.getPose().getOrientation().setZ(quaternion[3]);
-        publisher.publish(pose);
+        messagePool.publish(pose);
       }
     }
   }
@@ -81,7 +87,9 @@ public class OrientationPublisher extends AbstractNodeMain {
     try {
       Publisher<geometry_msgs.PoseStamped> publisher =
               connectedNode.newPublisher("android/orientation", "geometry_msgs/PoseStamped");
-      orientationListener = new OrientationListener(publisher);
+      messagePool = new MessagePool<geometry_msgs.PoseStamped>(connectedNode, publisher,
+          MESSAGE_POOL_CAPACITY);
+      orientationListener = new OrientationListener(messagePool);
       Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
       // 10 Hz
       sensorManager.registerListener(orientationListener, sensor, 500000);
@@ -89,4 +97,11 @@ public class OrientationPublisher extends AbstractNodeMain {
       connectedNode.getLog().fatal(e);
     }
   }
+
+  @Override
+  public void onShutdown(Node node) {
+    if (messagePool != null) {
+      messagePool.shutdown();
+    }
+  }
 }
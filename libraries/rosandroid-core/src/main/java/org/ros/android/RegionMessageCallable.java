@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import android.graphics.RectF;
+
+/**
+ * A {@link SizeAwareMessageCallable} that can decode just a region of an image,
+ * e.g. the part of it that is zoomed into.
+ *
+ * @param <T>
+ *          the return type
+ * @param <S>
+ *          the message type
+ */
+public interface RegionMessageCallable<T, S> extends SizeAwareMessageCallable<T, S> {
+
+  /**
+   * @param region
+   *          the region to decode in coordinates relative to the image size,
+   *          i.e. from (0, 0) to (1, 1)
+   * @param width
+   *          the width of the target view in pixels, or 0 if unknown
+   * @param height
+   *          the height of the target view in pixels, or 0 if unknown
+   */
+  T call(S message, RectF region, int width, int height);
+}
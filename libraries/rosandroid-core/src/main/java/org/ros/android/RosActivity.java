@@ -214,6 +214,12 @@ public abstract class RosActivity extends Activity {
     super.onDestroy();
   }
 
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    BitmapMemoryBudget.getInstance().onTrimMemory(level);
+  }
+
   protected void init() {
     // Run init() in a new thread as a convenience since it often requires
     // network access.
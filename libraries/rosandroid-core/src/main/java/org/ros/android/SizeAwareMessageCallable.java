@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+/**
+ * A {@link MessageCallable} that can make use of the size of the view its
+ * result is displayed in, e.g. to decode images at a lower resolution.
+ *
+ * @param <T>
+ *          the return type
+ * @param <S>
+ *          the message type
+ */
+public interface SizeAwareMessageCallable<T, S> extends MessageCallable<T, S> {
+
+  /**
+   * @param width
+   *          the width of the target view in pixels, or 0 if unknown
+   * @param height
+   *          the height of the target view in pixels, or 0 if unknown
+   */
+  T call(S message, int width, int height);
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import android.os.Process;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.topic.Publisher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes the latest commanded velocity as geometry_msgs/Twist at a fixed
+ * rate, independent of how often input events arrive.
+ * <p>
+ * {@link #setVelocity(float, float)} only stores the velocity in a lock-free
+ * slot, so it can be called from the UI thread for every touch event. A
+ * dedicated high-priority thread samples the slot and publishes at the
+ * configured rate. Non-zero velocities are repeated at every tick for as long
+ * as they are fresh. A velocity that has not been set again within the
+ * command timeout, e.g. because a touch-up event was lost or the UI thread
+ * stalled, is replaced by zero. A zero velocity is published once and then
+ * suppressed until a new velocity is set.
+ * <p>
+ * Messages are reused through a {@link MessagePool} if the node has a
+ * {@link MessageSerializationTracker} installed.
+ */
+public class TeleopPublisher extends AbstractNodeMain {
+
+  private static final float DEFAULT_RATE = 20;
+  private static final float DEFAULT_COMMAND_TIMEOUT = 0.5f;
+  private static final int MESSAGE_POOL_CAPACITY = 4;
+  // Both velocities are 0.
+  private static final long STOPPED = 0;
+
+  private final String topic;
+  // The linear velocity in the upper and the angular velocity in the lower 32
+  // bits, as raw float bits.
+  private final AtomicLong velocity;
+  // When the velocity was last set. Written before the velocity, so a fresh
+  // velocity is never seen with an older time.
+  private volatile long commandNanos;
+
+  private volatile float rate = DEFAULT_RATE;
+  private volatile long commandTimeoutNanos =
+      (long) (TimeUnit.SECONDS.toNanos(1) * DEFAULT_COMMAND_TIMEOUT);
+  private volatile Thread thread;
+  private MessagePool<geometry_msgs.Twist> messagePool;
+
+  private final class PublishLoop implements Runnable {
+
+    private final MessagePool<geometry_msgs.Twist> messagePool;
+
+    private PublishLoop(MessagePool<geometry_msgs.Twist> messagePool) {
+      this.messagePool = messagePool;
+    }
+
+    @Override
+    public void run() {
+      // Velocity commands are as latency sensitive as drawing.
+      Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+      boolean stopped = false;
+      long deadlineNanos = System.nanoTime();
+      while (!Thread.currentThread().isInterrupted()) {
+        long velocity = TeleopPublisher.this.velocity.get();
+        if (System.nanoTime() - commandNanos > commandTimeoutNanos) {
+          velocity = STOPPED;
+        }
+        boolean zero = isZero(velocity);
+        if (!zero || !stopped) {
+          // Only these two fields are ever set, so reused messages need no reset.
+          geometry_msgs.Twist twist = messagePool.acquire();
+          twist.getLinear().setX(getLinear(velocity));
+          twist.getAngular().setZ(getAngular(velocity));
+          messagePool.publish(twist);
+        }
+        stopped = zero;
+
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        deadlineNanos += periodNanos;
+        long nowNanos = System.nanoTime();
+        if (deadlineNanos < nowNanos - periodNanos) {
+          // Fell behind by more than a tick, skip the missed ticks rather than
+          // publishing them in a burst.
+          deadlineNanos = nowNanos;
+        }
+        // Sleeping towards absolute deadlines keeps the rate from drifting.
+        while (nowNanos < deadlineNanos && !Thread.currentThread().isInterrupted()) {
+          LockSupport.parkNanos(deadlineNanos - nowNanos);
+          nowNanos = System.nanoTime();
+        }
+      }
+    }
+  }
+
+  public TeleopPublisher(String topic) {
+    this.topic = topic;
+    velocity = new AtomicLong(STOPPED);
+  }
+
+  /**
+   * Sets the number of messages published per second, 20 by default. May be
+   * changed at any time.
+   */
+  public void setRate(float rate) {
+    Preconditions.checkArgument(rate > 0);
+    this.rate = rate;
+  }
+
+  /**
+   * Sets how long a velocity is published after it has last been set, 0.5 s by
+   * default. Input sources have to set the velocity again more often than
+   * that, even if it has not changed. May be changed at any time.
+   */
+  public void setCommandTimeout(float seconds) {
+    Preconditions.checkArgument(seconds > 0);
+    commandTimeoutNanos = (long) (TimeUnit.SECONDS.toNanos(1) * seconds);
+  }
+
+  /**
+   * Commands a velocity, published with the next tick and until the command
+   * timeout expires. May be called from any thread.
+   *
+   * @param linear
+   *          the forward velocity in m/s
+   * @param angular
+   *          the velocity around the vertical axis in rad/s
+   */
+  public void setVelocity(float linear, float angular) {
+    commandNanos = System.nanoTime();
+    velocity.set(((long) Float.floatToRawIntBits(linear) << 32)
+        | (Float.floatToRawIntBits(angular) & 0xffffffffL));
+  }
+
+  /**
+   * Commands the robot to stop.
+   */
+  public void stop() {
+    velocity.set(STOPPED);
+  }
+
+  public float getLinearVelocity() {
+    return getLinear(velocity.get());
+  }
+
+  public float getAngularVelocity() {
+    return getAngular(velocity.get());
+  }
+
+  private static float getLinear(long velocity) {
+    return Float.intBitsToFloat((int) (velocity >>> 32));
+  }
+
+  private static float getAngular(long velocity) {
+    return Float.intBitsToFloat((int) velocity);
+  }
+
+  private static boolean isZero(long velocity) {
+    // Also true for negative zero.
+    return getLinear(velocity) == 0 && getAngular(velocity) == 0;
+  }
+
+  @Override
+  public GraphName getDefaultNodeName() {
+    return GraphName.of("android/teleop");
+  }
+
+  @Override
+  public void onStart(ConnectedNode connectedNode) {
+    Publisher<geometry_msgs.Twist> publisher =
+        connectedNode.newPublisher(topic, geometry_msgs.Twist._TYPE);
+    messagePool =
+        new MessagePool<geometry_msgs.Twist>(connectedNode, publisher, MESSAGE_POOL_CAPACITY);
+    Thread thread = new Thread(new PublishLoop(messagePool), "TeleopPublisher");
+    thread.start();
+    this.thread = thread;
+  }
+
+  @Override
+  public void onShutdown(Node node) {
+    Thread thread = this.thread;
+    if (thread != null) {
+      thread.interrupt();
+      this.thread = null;
+      messagePool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view;
+
+import com.google.common.base.Preconditions;
+
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A pool of decode threads shared by several image views.
+ * <p>
+ * Every view decodes through its own {@link Lane}. Worker threads serve the
+ * lanes round-robin, so a camera with a high frame rate cannot starve the
+ * others. Each lane can be limited to a maximum frame rate, e.g. to give a
+ * focused view its full frame rate while the others are throttled.
+ */
+public class FairDecoderPool {
+
+  private static final int DEFAULT_LANE_DEPTH = 2;
+
+  private final List<Lane> lanes;
+  private final List<Thread> threads;
+
+  private int nextLane;
+  private boolean shutdown;
+
+  /**
+   * Decode tasks of a single view. Tasks beyond the lane depth replace the
+   * oldest pending task.
+   */
+  public final class Lane implements Executor {
+
+    private final ArrayDeque<Runnable> tasks;
+    private final int depth;
+
+    private long minimumIntervalNanos;
+    private long lastRunNanos;
+    private long droppedTasks;
+
+    private Lane(int depth) {
+      this.depth = depth;
+      tasks = new ArrayDeque<Runnable>(depth);
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      synchronized (FairDecoderPool.this) {
+        if (shutdown) {
+          return;
+        }
+        if (tasks.size() == depth) {
+          tasks.pollFirst();
+          droppedTasks++;
+        }
+        tasks.addLast(runnable);
+        FairDecoderPool.this.notifyAll();
+      }
+    }
+
+    /**
+     * @param frameRate
+     *          the maximum number of tasks run per second, or 0 for no limit
+     */
+    public void setMaximumFrameRate(float frameRate) {
+      Preconditions.checkArgument(frameRate >= 0);
+      synchronized (FairDecoderPool.this) {
+        minimumIntervalNanos = frameRate > 0 ? (long) (1e9 / frameRate) : 0;
+        FairDecoderPool.this.notifyAll();
+      }
+    }
+
+    public long getDroppedTaskCount() {
+      synchronized (FairDecoderPool.this) {
+        return droppedTasks;
+      }
+    }
+
+    /**
+     * @return the time in nanoseconds until this lane may run its next task,
+     *         0 if it may run now, or {@link Long#MAX_VALUE} if it has none
+     */
+    private long getDelayNanos(long nowNanos) {
+      if (tasks.isEmpty()) {
+        return Long.MAX_VALUE;
+      }
+      if (lastRunNanos == 0) {
+        return 0;
+      }
+      return Math.max(0, lastRunNanos + minimumIntervalNanos - nowNanos);
+    }
+  }
+
+  private final class Worker implements Runnable {
+
+    private final int priority;
+
+    private Worker(int priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public void run() {
+      Process.setThreadPriority(priority);
+      try {
+        while (true) {
+          Runnable task = take();
+          if (task == null) {
+            return;
+          }
+          task.run();
+        }
+      } catch (InterruptedException e) {
+        // Shutting down.
+      }
+    }
+  }
+
+  /**
+   * Creates a pool with one thread per available core.
+   */
+  public FairDecoderPool() {
+    this(Runtime.getRuntime().availableProcessors(), Process.THREAD_PRIORITY_DISPLAY);
+  }
+
+  /**
+   * @param threads
+   *          the number of decode threads
+   * @param priority
+   *          the Linux thread priority of the decode threads
+   */
+  public FairDecoderPool(int threads, int priority) {
+    Preconditions.checkArgument(threads > 0);
+    lanes = new ArrayList<Lane>();
+    this.threads = new ArrayList<Thread>(threads);
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread(new Worker(priority), "FairDecoderPool-" + (i + 1));
+      thread.setDaemon(true);
+      this.threads.add(thread);
+      thread.start();
+    }
+  }
+
+  public synchronized Lane newLane() {
+    Lane lane = new Lane(DEFAULT_LANE_DEPTH);
+    lanes.add(lane);
+    return lane;
+  }
+
+  public synchronized void removeLane(Lane lane) {
+    lanes.remove(lane);
+  }
+
+  /**
+   * Stops all decode threads. Pending tasks are discarded.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      shutdown = true;
+      for (Lane lane : lanes) {
+        lane.tasks.clear();
+      }
+      notifyAll();
+    }
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * @return the next task in round-robin order among the lanes that may run,
+   *         or {@code null} once shut down
+   */
+  private synchronized Runnable take() throws InterruptedException {
+    while (!shutdown) {
+      long nowNanos = System.nanoTime();
+      long waitNanos = Long.MAX_VALUE;
+      int laneCount = lanes.size();
+      for (int i = 0; i < laneCount; i++) {
+        int index = (nextLane + i) % laneCount;
+        Lane lane = lanes.get(index);
+        long delayNanos = lane.getDelayNanos(nowNanos);
+        if (delayNanos == 0) {
+          nextLane = index + 1;
+          lane.lastRunNanos = nowNanos;
+          return lane.tasks.pollFirst();
+        }
+        waitNanos = Math.min(waitNanos, delayNanos);
+      }
+      if (waitNanos == Long.MAX_VALUE) {
+        wait();
+      } else {
+        wait(Math.max(1, waitNanos / 1000000));
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view;
+
+import com.google.common.base.Preconditions;
+
+import android.os.Process;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes images off the UI thread on a small pool of worker threads.
+ * <p>
+ * Pending decode tasks are kept in a bounded queue. When the queue is full the
+ * oldest pending task is dropped in favor of the new one. Tasks that drain a
+ * view's coalescing slot are the exception: they are never dropped and do not
+ * count against the queue depth, since dropping one would leave the slot
+ * occupied and the view frozen.
+ */
+public class ImageDecodeWorker implements Executor {
+
+  private static final int DEFAULT_THREADS = 1;
+  private static final int DEFAULT_QUEUE_DEPTH = 2;
+
+  private final ThreadPoolExecutor executor;
+  private final int queueDepth;
+  private final Queue<PendingTask> pendingTasks;
+  private final AtomicLong droppedTasks;
+
+  private static final class DecodeThreadFactory implements ThreadFactory {
+
+    private final int priority;
+    private final AtomicInteger threadCount;
+
+    private DecodeThreadFactory(int priority) {
+      this.priority = priority;
+      threadCount = new AtomicInteger();
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(priority);
+          runnable.run();
+        }
+      }, "ImageDecodeWorker-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  private final class PendingTask implements Runnable {
+
+    private final Runnable runnable;
+
+    private PendingTask(Runnable runnable) {
+      this.runnable = runnable;
+    }
+
+    @Override
+    public void run() {
+      // Whoever removes the task from the pending queue owns it, so a task that
+      // is being dropped concurrently is never run.
+      if (pendingTasks.remove(this)) {
+        runnable.run();
+      }
+    }
+  }
+
+  public ImageDecodeWorker() {
+    this(DEFAULT_THREADS, Process.THREAD_PRIORITY_DISPLAY, DEFAULT_QUEUE_DEPTH);
+  }
+
+  /**
+   * @param threads
+   *          the number of decode threads
+   * @param priority
+   *          the Linux thread priority of the decode threads, e.g.
+   *          {@link Process#THREAD_PRIORITY_DISPLAY}
+   * @param queueDepth
+   *          the maximum number of pending decode tasks
+   */
+  public ImageDecodeWorker(int threads, int priority, int queueDepth) {
+    Preconditions.checkArgument(threads > 0);
+    Preconditions.checkArgument(queueDepth > 0);
+    this.queueDepth = queueDepth;
+    pendingTasks = new ConcurrentLinkedQueue<PendingTask>();
+    droppedTasks = new AtomicLong();
+    executor =
+        new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DecodeThreadFactory(priority),
+            new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    Preconditions.checkNotNull(runnable);
+    PendingTask task = new PendingTask(runnable);
+    synchronized (pendingTasks) {
+      while (pendingTasks.size() >= queueDepth) {
+        PendingTask oldest = pendingTasks.poll();
+        if (oldest == null) {
+          break;
+        }
+        executor.remove(oldest);
+        droppedTasks.incrementAndGet();
+      }
+      pendingTasks.add(task);
+    }
+    executor.execute(task);
+  }
+
+  /**
+   * Executes a task that drains a coalescing slot. The task bypasses the queue
+   * bound and is never dropped. Callers must queue at most one such task per
+   * slot at a time.
+   */
+  public void executeCoalesced(Runnable runnable) {
+    executor.execute(runnable);
+  }
+
+  /**
+   * Executes the drain task of a coalescing slot on the given executor, using
+   * {@link #executeCoalesced(Runnable)} when it is an {@link ImageDecodeWorker}.
+   */
+  static void executeCoalesced(Executor executor, Runnable runnable) {
+    if (executor instanceof ImageDecodeWorker) {
+      ((ImageDecodeWorker) executor).executeCoalesced(runnable);
+    } else {
+      executor.execute(runnable);
+    }
+  }
+
+  /**
+   * @return the number of pending tasks that were dropped because the queue was
+   *         full
+   */
+  public long getDroppedTaskCount() {
+    return droppedTasks.get();
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view;
+
+import org.ros.message.Time;
+
+/**
+ * Reads the header stamp and data size of image messages without knowing their
+ * type in advance.
+ */
+final class ImageMessages {
+
+  private ImageMessages() {
+    // Utility class.
+  }
+
+  /**
+   * @return the size of the image data, or 0 if the message is not an image
+   */
+  static int getDataSize(Object message) {
+    if (message instanceof sensor_msgs.CompressedImage) {
+      return ((sensor_msgs.CompressedImage) message).getData().readableBytes();
+    }
+    if (message instanceof sensor_msgs.Image) {
+      return ((sensor_msgs.Image) message).getData().readableBytes();
+    }
+    return 0;
+  }
+
+  /**
+   * @return the header stamp in nanoseconds, or 0 if the message is not an
+   *         image
+   */
+  static long getStampNanos(Object message) {
+    Time stamp = null;
+    if (message instanceof sensor_msgs.CompressedImage) {
+      stamp = ((sensor_msgs.CompressedImage) message).getHeader().getStamp();
+    } else if (message instanceof sensor_msgs.Image) {
+      stamp = ((sensor_msgs.Image) message).getHeader().getStamp();
+    }
+    return stamp == null ? 0 : stamp.totalNsecs();
+  }
+}
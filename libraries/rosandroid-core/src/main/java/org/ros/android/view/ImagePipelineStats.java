@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view;
+
+import java.util.Arrays;
+
+/**
+ * Collects statistics about the frames passing through an image view.
+ * <p>
+ * Rates and latency are computed over windows of {@link #WINDOW_MILLIS}, decode
+ * time percentiles over the last 64 decoded frames. All are published to the
+ * {@link Listener} at the end of each window. Recording a frame does not
+ * allocate.
+ */
+public class ImagePipelineStats {
+
+  public static final long WINDOW_MILLIS = 1000;
+
+  // The number of decode times kept for the percentiles. With 64 samples the
+  // 95th percentile still has three samples above it, a 99th would not.
+  private static final int DECODE_TIME_SAMPLES = 64;
+
+  public interface Listener {
+
+    /**
+     * Called at the end of every window on the thread that recorded the last
+     * frame of the window.
+     */
+    void onStatsUpdated(ImagePipelineStats stats);
+  }
+
+  private final long[] decodeTimes;
+  private final long[] sortedDecodeTimes;
+
+  private volatile Listener listener;
+
+  private long windowStartMillis;
+  private int decodeTimeCount;
+  private int windowReceivedFrames;
+  private int windowDisplayedFrames;
+  private long windowBytes;
+  private long windowLatencyNanos;
+  private int windowLatencySamples;
+
+  private long receivedFrames;
+  private long displayedFrames;
+  private long droppedFrames;
+
+  private float receiveRate;
+  private float displayRate;
+  private float bytesPerSecond;
+  private float decodeTimeP50Millis;
+  private float decodeTimeP95Millis;
+  private float latencyMillis;
+
+  public ImagePipelineStats() {
+    decodeTimes = new long[DECODE_TIME_SAMPLES];
+    sortedDecodeTimes = new long[DECODE_TIME_SAMPLES];
+    windowStartMillis = System.currentTimeMillis();
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @param bytes
+   *          the size of the image data of the received message
+   */
+  public void onFrameReceived(int bytes) {
+    boolean updated;
+    synchronized (this) {
+      receivedFrames++;
+      windowReceivedFrames++;
+      windowBytes += bytes;
+      updated = maybeCloseWindow();
+    }
+    maybeNotifyListener(updated);
+  }
+
+  public void onFrameDecoded(long decodeTimeNanos) {
+    synchronized (this) {
+      decodeTimes[decodeTimeCount % DECODE_TIME_SAMPLES] = decodeTimeNanos;
+      decodeTimeCount++;
+    }
+  }
+
+  public void onFrameDropped() {
+    synchronized (this) {
+      droppedFrames++;
+    }
+  }
+
+  /**
+   * @param stampNanos
+   *          the header stamp of the displayed frame in nanoseconds of wall
+   *          time, or 0 if unknown
+   */
+  public void onFrameDisplayed(long stampNanos) {
+    long nowMillis = System.currentTimeMillis();
+    boolean updated;
+    synchronized (this) {
+      displayedFrames++;
+      windowDisplayedFrames++;
+      if (stampNanos > 0) {
+        windowLatencyNanos += nowMillis * 1000000L - stampNanos;
+        windowLatencySamples++;
+      }
+      updated = maybeCloseWindow();
+    }
+    maybeNotifyListener(updated);
+  }
+
+  private boolean maybeCloseWindow() {
+    long nowMillis = System.currentTimeMillis();
+    long elapsedMillis = nowMillis - windowStartMillis;
+    if (elapsedMillis < WINDOW_MILLIS) {
+      return false;
+    }
+    float seconds = elapsedMillis / 1000.f;
+    receiveRate = windowReceivedFrames / seconds;
+    displayRate = windowDisplayedFrames / seconds;
+    bytesPerSecond = windowBytes / seconds;
+    latencyMillis =
+        windowLatencySamples > 0 ? windowLatencyNanos / windowLatencySamples / 1e6f : 0;
+
+    int samples = Math.min(decodeTimeCount, DECODE_TIME_SAMPLES);
+    if (samples > 0) {
+      System.arraycopy(decodeTimes, 0, sortedDecodeTimes, 0, samples);
+      Arrays.sort(sortedDecodeTimes, 0, samples);
+      decodeTimeP50Millis = sortedDecodeTimes[(samples - 1) / 2] / 1e6f;
+      decodeTimeP95Millis = sortedDecodeTimes[(samples - 1) * 95 / 100] / 1e6f;
+    }
+
+    windowStartMillis = nowMillis;
+    windowReceivedFrames = 0;
+    windowDisplayedFrames = 0;
+    windowBytes = 0;
+    windowLatencyNanos = 0;
+    windowLatencySamples = 0;
+    return true;
+  }
+
+  private void maybeNotifyListener(boolean updated) {
+    Listener listener = this.listener;
+    if (updated && listener != null) {
+      listener.onStatsUpdated(this);
+    }
+  }
+
+  /**
+   * @return received frames per second
+   */
+  public synchronized float getReceiveRate() {
+    return receiveRate;
+  }
+
+  /**
+   * @return displayed frames per second
+   */
+  public synchronized float getDisplayRate() {
+    return displayRate;
+  }
+
+  /**
+   * @return received image bytes per second
+   */
+  public synchronized float getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  public synchronized float getDecodeTimeP50Millis() {
+    return decodeTimeP50Millis;
+  }
+
+  public synchronized float getDecodeTimeP95Millis() {
+    return decodeTimeP95Millis;
+  }
+
+  /**
+   * @return the mean time from the header stamp of a frame until it is
+   *         displayed
+   */
+  public synchronized float getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  public synchronized long getReceivedFrameCount() {
+    return receivedFrames;
+  }
+
+  public synchronized long getDisplayedFrameCount() {
+    return displayedFrames;
+  }
+
+  public synchronized long getDroppedFrameCount() {
+    return droppedFrames;
+  }
+}
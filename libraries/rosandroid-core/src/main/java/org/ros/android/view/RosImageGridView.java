@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view;
+
+import com.google.common.base.Preconditions;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import org.ros.android.MessageCallable;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.NodeMain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Displays several image topics in a grid of {@link RosImageView} tiles.
+ * <p>
+ * All tiles subscribe through this node and decode on one shared
+ * {@link FairDecoderPool}. Each tile can be given its own maximum frame rate
+ * with {@link #setTileFrameRate(int, float)}. Tiles without one follow the
+ * focus: the focused tile decodes at its full frame rate, the other tiles are
+ * limited to {@link #setUnfocusedFrameRate(float)}. Tapping a tile focuses it.
+ */
+public class RosImageGridView extends ViewGroup implements NodeMain {
+
+  private static final float DEFAULT_UNFOCUSED_FRAME_RATE = 5;
+
+  private final List<RosImageView<?>> tiles = new ArrayList<RosImageView<?>>();
+  private final List<FairDecoderPool.Lane> lanes = new ArrayList<FairDecoderPool.Lane>();
+  // The frame rate set for each tile, or null to follow the focus.
+  private final List<Float> tileFrameRates = new ArrayList<Float>();
+
+  private FairDecoderPool decoderPool;
+  private int focusedTile;
+  private float unfocusedFrameRate = DEFAULT_UNFOCUSED_FRAME_RATE;
+
+  public RosImageGridView(Context context) {
+    super(context);
+  }
+
+  public RosImageGridView(Context context, AttributeSet attrs) {
+    super(context, attrs);
+  }
+
+  public RosImageGridView(Context context, AttributeSet attrs, int defStyle) {
+    super(context, attrs, defStyle);
+  }
+
+  /**
+   * Adds a tile for the given topic. Must be called on the UI thread before the
+   * node is started.
+   *
+   * @return the new tile, e.g. to set a bitmap pool or enable statistics
+   */
+  public <T> RosImageView<T> addTile(String topicName, String messageType,
+      MessageCallable<Bitmap, T> callable) {
+    RosImageView<T> tile = new RosImageView<T>(getContext());
+    tile.setTopicName(topicName);
+    tile.setMessageType(messageType);
+    tile.setMessageToBitmapCallable(callable);
+    tile.setFrameCoalescing(true);
+    tile.setScaleType(ImageView.ScaleType.FIT_CENTER);
+    final int index = tiles.size();
+    tile.setOnClickListener(new OnClickListener() {
+      @Override
+      public void onClick(View view) {
+        setFocusedTile(index);
+      }
+    });
+    synchronized (this) {
+      tiles.add(tile);
+      tileFrameRates.add(null);
+    }
+    addView(tile);
+    return tile;
+  }
+
+  public int getTileCount() {
+    return tiles.size();
+  }
+
+  public RosImageView<?> getTile(int index) {
+    return tiles.get(index);
+  }
+
+  public synchronized void setFocusedTile(int index) {
+    Preconditions.checkElementIndex(index, tiles.size());
+    focusedTile = index;
+    updateFrameRates();
+  }
+
+  public synchronized int getFocusedTile() {
+    return focusedTile;
+  }
+
+  /**
+   * @param frameRate
+   *          the maximum frame rate of all tiles but the focused one that
+   *          have no frame rate of their own, or 0 for no limit
+   */
+  public synchronized void setUnfocusedFrameRate(float frameRate) {
+    Preconditions.checkArgument(frameRate >= 0);
+    unfocusedFrameRate = frameRate;
+    updateFrameRates();
+  }
+
+  /**
+   * Gives a tile its own maximum frame rate, which takes precedence over the
+   * focus.
+   *
+   * @param frameRate
+   *          the maximum frame rate of the tile, or 0 for no limit
+   */
+  public synchronized void setTileFrameRate(int index, float frameRate) {
+    Preconditions.checkElementIndex(index, tiles.size());
+    Preconditions.checkArgument(frameRate >= 0);
+    tileFrameRates.set(index, frameRate);
+    updateFrameRates();
+  }
+
+  /**
+   * Makes a tile follow the focus again, see {@link #setTileFrameRate(int, float)}.
+   */
+  public synchronized void clearTileFrameRate(int index) {
+    Preconditions.checkElementIndex(index, tiles.size());
+    tileFrameRates.set(index, null);
+    updateFrameRates();
+  }
+
+  /**
+   * @return the maximum frame rate the tile currently decodes at, or 0 for no
+   *         limit
+   */
+  public synchronized float getTileFrameRate(int index) {
+    Preconditions.checkElementIndex(index, tiles.size());
+    Float frameRate = tileFrameRates.get(index);
+    if (frameRate != null) {
+      return frameRate;
+    }
+    return index == focusedTile ? 0 : unfocusedFrameRate;
+  }
+
+  private synchronized void updateFrameRates() {
+    for (int i = 0; i < lanes.size(); i++) {
+      lanes.get(i).setMaximumFrameRate(getTileFrameRate(i));
+    }
+  }
+
+  @Override
+  protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    int width = MeasureSpec.getSize(widthMeasureSpec);
+    int height = MeasureSpec.getSize(heightMeasureSpec);
+    setMeasuredDimension(width, height);
+    int count = getChildCount();
+    if (count == 0) {
+      return;
+    }
+    int columns = getColumnCount(count);
+    int rows = (count + columns - 1) / columns;
+    int tileWidthSpec = MeasureSpec.makeMeasureSpec(width / columns, MeasureSpec.EXACTLY);
+    int tileHeightSpec = MeasureSpec.makeMeasureSpec(height / rows, MeasureSpec.EXACTLY);
+    for (int i = 0; i < count; i++) {
+      getChildAt(i).measure(tileWidthSpec, tileHeightSpec);
+    }
+  }
+
+  @Override
+  protected void onLayout(boolean changed, int l, int t, int r, int b) {
+    int count = getChildCount();
+    if (count == 0) {
+      return;
+    }
+    int columns = getColumnCount(count);
+    int rows = (count + columns - 1) / columns;
+    int tileWidth = (r - l) / columns;
+    int tileHeight = (b - t) / rows;
+    for (int i = 0; i < count; i++) {
+      int left = (i % columns) * tileWidth;
+      int top = (i / columns) * tileHeight;
+      getChildAt(i).layout(left, top, left + tileWidth, top + tileHeight);
+    }
+  }
+
+  private static int getColumnCount(int tiles) {
+    return (int) Math.ceil(Math.sqrt(tiles));
+  }
+
+  @Override
+  public GraphName getDefaultNodeName() {
+    return GraphName.of("ros_image_grid_view");
+  }
+
+  @Override
+  public void onStart(ConnectedNode connectedNode) {
+    synchronized (this) {
+      decoderPool = new FairDecoderPool();
+      lanes.clear();
+      for (RosImageView<?> tile : tiles) {
+        FairDecoderPool.Lane lane = decoderPool.newLane();
+        tile.setDecodeExecutor(lane);
+        lanes.add(lane);
+      }
+      updateFrameRates();
+    }
+    for (RosImageView<?> tile : tiles) {
+      tile.onStart(connectedNode);
+    }
+  }
+
+  @Override
+  public void onShutdown(Node node) {
+    for (RosImageView<?> tile : tiles) {
+      tile.onShutdown(node);
+    }
+    synchronized (this) {
+      if (decoderPool != null) {
+        decoderPool.shutdown();
+        decoderPool = null;
+      }
+    }
+  }
+
+  @Override
+  public void onShutdownComplete(Node node) {
+  }
+
+  @Override
+  public void onError(Node node, Throwable throwable) {
+  }
+}
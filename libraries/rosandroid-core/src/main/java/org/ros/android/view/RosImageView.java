@@ -18,9 +18,21 @@ package org.ros.android.view;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.widget.ImageView;
+import org.ros.android.BitmapMemoryBudget;
+import org.ros.android.BitmapPool;
 import org.ros.android.MessageCallable;
+import org.ros.android.RegionMessageCallable;
+import org.ros.android.SizeAwareMessageCallable;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
@@ -28,28 +40,156 @@ import org.ros.node.Node;
 import org.ros.node.NodeMain;
 import org.ros.node.topic.Subscriber;
 
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Displays incoming sensor_msgs/CompressedImage messages.
  * 
  * @author ethan.rublee@gmail.com (Ethan Rublee)
  * @author damonkohler@google.com (Damon Kohler)
  */
-public class RosImageView<T> extends android.support.v7.widget.AppCompatImageView implements NodeMain {
+public class RosImageView<T> extends android.support.v7.widget.AppCompatImageView implements
+    NodeMain, BitmapMemoryBudget.Consumer {
 
   private String topicName;
   private String messageType;
   private MessageCallable<Bitmap, T> callable;
+  // The same callable if it is size or region aware, otherwise null.
+  private SizeAwareMessageCallable<Bitmap, T> sizeAwareCallable;
+  private RegionMessageCallable<Bitmap, T> regionCallable;
+  private BitmapPool bitmapPool;
+  private volatile Bitmap bitmap;
+  private volatile boolean windowVisible;
+  private volatile boolean frameCoalescing;
+  private volatile Executor decodeExecutor;
+  private volatile int viewWidth;
+  private volatile int viewHeight;
+
+  /**
+   * A decoded bitmap together with the header stamp of its message, handed
+   * over to the UI thread as a whole.
+   */
+  private static final class DecodedFrame {
+
+    private final Bitmap bitmap;
+    private final long stampNanos;
+
+    private DecodedFrame(Bitmap bitmap, long stampNanos) {
+      this.bitmap = bitmap;
+      this.stampNanos = stampNanos;
+    }
+  }
+
+  private final AtomicReference<T> pendingMessage = new AtomicReference<T>();
+  private final AtomicReference<DecodedFrame> pendingFrame = new AtomicReference<DecodedFrame>();
+  private final ImagePipelineStats stats = new ImagePipelineStats();
+  private final Runnable displayPendingMessage = new Runnable() {
+    @Override
+    public void run() {
+      T message = pendingMessage.getAndSet(null);
+      if (message != null) {
+        displayBitmap(decode(message), ImageMessages.getStampNanos(message));
+      }
+    }
+  };
+  private final Runnable decodePendingMessage = new Runnable() {
+    @Override
+    public void run() {
+      T message = pendingMessage.getAndSet(null);
+      if (message != null) {
+        postDecodedBitmap(decode(message), ImageMessages.getStampNanos(message));
+      }
+    }
+  };
+  private final Runnable displayPendingBitmap = new Runnable() {
+    @Override
+    public void run() {
+      DecodedFrame frame = pendingFrame.getAndSet(null);
+      if (frame != null) {
+        displayBitmap(frame.bitmap, frame.stampNanos);
+      }
+    }
+  };
+
+  private volatile ImagePipelineStats.Listener statsListener;
+  private volatile String[] statsOverlayLines;
+  private volatile Paint statsOverlayPaint;
+  private Paint statsOverlayBackgroundPaint;
+
+  private static final float DEFAULT_MAXIMUM_ZOOM = 8;
+
+  // Guards the zoom factor and the center of the zoomed region.
+  private final Object zoomMutex = new Object();
+  private final RectF decodeRegion = new RectF();
+  private ScaleGestureDetector scaleGestureDetector;
+  private GestureDetector gestureDetector;
+  private volatile boolean zoomEnabled;
+  private float maximumZoom = DEFAULT_MAXIMUM_ZOOM;
+  private float zoom = 1;
+  private float zoomCenterX = 0.5f;
+  private float zoomCenterY = 0.5f;
 
   public RosImageView(Context context) {
     super(context);
+    init();
   }
 
   public RosImageView(Context context, AttributeSet attrs) {
     super(context, attrs);
+    init();
   }
 
   public RosImageView(Context context, AttributeSet attrs, int defStyle) {
     super(context, attrs, defStyle);
+    init();
+  }
+
+  private void init() {
+    scaleGestureDetector = new ScaleGestureDetector(getContext(),
+        new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+          @Override
+          public boolean onScale(ScaleGestureDetector detector) {
+            synchronized (zoomMutex) {
+              zoom = Math.max(1, Math.min(zoom * detector.getScaleFactor(), maximumZoom));
+              clampZoomCenter();
+            }
+            return true;
+          }
+        });
+    gestureDetector = new GestureDetector(getContext(),
+        new GestureDetector.SimpleOnGestureListener() {
+          @Override
+          public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+              float distanceY) {
+            synchronized (zoomMutex) {
+              zoomCenterX += distanceX / (getWidth() * zoom);
+              zoomCenterY += distanceY / (getHeight() * zoom);
+              clampZoomCenter();
+            }
+            return true;
+          }
+
+          @Override
+          public boolean onDoubleTap(MotionEvent event) {
+            resetZoom();
+            return true;
+          }
+        });
+    stats.setListener(new ImagePipelineStats.Listener() {
+      @Override
+      public void onStatsUpdated(ImagePipelineStats stats) {
+        if (statsOverlayPaint != null) {
+          statsOverlayLines = formatStats(stats);
+          postInvalidate();
+        }
+        ImagePipelineStats.Listener listener = statsListener;
+        if (listener != null) {
+          listener.onStatsUpdated(stats);
+        }
+      }
+    });
   }
 
   public void setTopicName(String topicName) {
@@ -60,8 +200,217 @@ public class RosImageView<T> extends android.support.v7.widget.AppCompatImageVie
     this.messageType = messageType;
   }
 
+  /**
+   * If the callable is a {@link SizeAwareMessageCallable}, it is passed the
+   * current size of this view with every message.
+   */
   public void setMessageToBitmapCallable(MessageCallable<Bitmap, T> callable) {
     this.callable = callable;
+    sizeAwareCallable = null;
+    regionCallable = null;
+    if (callable instanceof SizeAwareMessageCallable) {
+      sizeAwareCallable = (SizeAwareMessageCallable<Bitmap, T>) callable;
+    }
+    if (callable instanceof RegionMessageCallable) {
+      regionCallable = (RegionMessageCallable<Bitmap, T>) callable;
+    }
+  }
+
+  /**
+   * Bitmaps swapped out of this view are returned to the given pool so that
+   * the {@link MessageCallable} can decode the next frames into them. Use the
+   * same pool for both.
+   */
+  public void setBitmapPool(BitmapPool bitmapPool) {
+    this.bitmapPool = bitmapPool;
+  }
+
+  /**
+   * When enabled, only the newest received frame is kept until the UI thread
+   * is ready for it. Older frames are dropped before they are decoded and at
+   * most one update is pending on the UI thread at any time.
+   */
+  public void setFrameCoalescing(boolean frameCoalescing) {
+    this.frameCoalescing = frameCoalescing;
+  }
+
+  /**
+   * Moves decoding off the UI thread. Messages are decoded on the given
+   * executor, typically an {@link ImageDecodeWorker}, and only the swap of the
+   * decoded bitmap runs on the UI thread. Set to {@code null} to decode on the
+   * UI thread again. Executors other than {@link ImageDecodeWorker} must not
+   * drop tasks while frames are coalesced.
+   */
+  public void setDecodeExecutor(Executor decodeExecutor) {
+    this.decodeExecutor = decodeExecutor;
+  }
+
+  /**
+   * @return the number of frames dropped in favor of newer ones
+   */
+  public long getDroppedFrameCount() {
+    return stats.getDroppedFrameCount();
+  }
+
+  /**
+   * @return the number of frames that have been displayed
+   */
+  public long getDisplayedFrameCount() {
+    return stats.getDisplayedFrameCount();
+  }
+
+  public ImagePipelineStats getStats() {
+    return stats;
+  }
+
+  /**
+   * @param statsListener
+   *          called once per {@link ImagePipelineStats#WINDOW_MILLIS} with the
+   *          updated statistics, not necessarily on the UI thread
+   */
+  public void setStatsListener(ImagePipelineStats.Listener statsListener) {
+    this.statsListener = statsListener;
+  }
+
+  /**
+   * Draws the pipeline statistics on top of the image. Must be called on the UI
+   * thread.
+   */
+  public void setStatsOverlayEnabled(boolean enabled) {
+    if (enabled && statsOverlayPaint == null) {
+      statsOverlayBackgroundPaint = new Paint();
+      statsOverlayBackgroundPaint.setColor(Color.argb(160, 0, 0, 0));
+      Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+      paint.setColor(Color.WHITE);
+      paint.setTextSize(12 * getResources().getDisplayMetrics().scaledDensity);
+      statsOverlayLines = formatStats(stats);
+      statsOverlayPaint = paint;
+    } else if (!enabled) {
+      statsOverlayPaint = null;
+      statsOverlayBackgroundPaint = null;
+    }
+    invalidate();
+  }
+
+  /**
+   * Enables pinch-zoom and panning. While zoomed in, a
+   * {@link RegionMessageCallable} decodes only the visible region of each
+   * frame. A double tap zooms out again.
+   */
+  public void setZoomEnabled(boolean zoomEnabled) {
+    this.zoomEnabled = zoomEnabled;
+    if (!zoomEnabled) {
+      resetZoom();
+    }
+  }
+
+  public void setMaximumZoom(float maximumZoom) {
+    synchronized (zoomMutex) {
+      this.maximumZoom = Math.max(1, maximumZoom);
+      zoom = Math.min(zoom, this.maximumZoom);
+      clampZoomCenter();
+    }
+  }
+
+  public void resetZoom() {
+    synchronized (zoomMutex) {
+      zoom = 1;
+      zoomCenterX = 0.5f;
+      zoomCenterY = 0.5f;
+    }
+  }
+
+  private void clampZoomCenter() {
+    float halfSize = 0.5f / zoom;
+    zoomCenterX = Math.max(halfSize, Math.min(zoomCenterX, 1 - halfSize));
+    zoomCenterY = Math.max(halfSize, Math.min(zoomCenterY, 1 - halfSize));
+  }
+
+  /**
+   * @return {@code true} if zoomed in, in which case {@code region} is set to
+   *         the visible part of the image in relative coordinates
+   */
+  private boolean getZoomRegion(RectF region) {
+    synchronized (zoomMutex) {
+      if (zoom <= 1) {
+        return false;
+      }
+      float halfSize = 0.5f / zoom;
+      region.set(zoomCenterX - halfSize, zoomCenterY - halfSize, zoomCenterX + halfSize,
+          zoomCenterY + halfSize);
+      return true;
+    }
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    BitmapMemoryBudget.getInstance().register(this);
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    BitmapMemoryBudget.getInstance().unregister(this);
+    super.onDetachedFromWindow();
+  }
+
+  @Override
+  protected void onWindowVisibilityChanged(int visibility) {
+    super.onWindowVisibilityChanged(visibility);
+    windowVisible = visibility == VISIBLE;
+  }
+
+  @Override
+  public long getBitmapBytes() {
+    Bitmap currentBitmap = bitmap;
+    return currentBitmap == null ? 0 : currentBitmap.getByteCount();
+  }
+
+  /**
+   * Releases the displayed frame, but only while the window is hidden. Off the
+   * UI thread the release is posted and not counted, since the window may
+   * become visible before it runs.
+   */
+  @Override
+  public long trimBitmapMemory(long bytes) {
+    if (windowVisible) {
+      return 0;
+    }
+    if (Looper.myLooper() == Looper.getMainLooper()) {
+      return releaseHiddenBitmap();
+    }
+    post(new Runnable() {
+      @Override
+      public void run() {
+        releaseHiddenBitmap();
+      }
+    });
+    return 0;
+  }
+
+  /**
+   * Must be called on the UI thread.
+   *
+   * @return the number of bytes released
+   */
+  private long releaseHiddenBitmap() {
+    if (windowVisible) {
+      return 0;
+    }
+    long released = getBitmapBytes();
+    setImageBitmap(null);
+    bitmap = null;
+    return released;
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    if (!zoomEnabled) {
+      return super.onTouchEvent(event);
+    }
+    scaleGestureDetector.onTouchEvent(event);
+    gestureDetector.onTouchEvent(event);
+    return true;
   }
 
   @Override
@@ -75,10 +424,35 @@ public class RosImageView<T> extends android.support.v7.widget.AppCompatImageVie
     subscriber.addMessageListener(new MessageListener<T>() {
       @Override
       public void onNewMessage(final T message) {
+        stats.onFrameReceived(ImageMessages.getDataSize(message));
+        Executor executor = decodeExecutor;
+        if (executor != null) {
+          if (!frameCoalescing) {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                postDecodedBitmap(decode(message), ImageMessages.getStampNanos(message));
+              }
+            });
+          } else if (pendingMessage.getAndSet(message) != null) {
+            stats.onFrameDropped();
+          } else {
+            ImageDecodeWorker.executeCoalesced(executor, decodePendingMessage);
+          }
+          return;
+        }
+        if (frameCoalescing) {
+          if (pendingMessage.getAndSet(message) != null) {
+            stats.onFrameDropped();
+          } else {
+            post(displayPendingMessage);
+          }
+          return;
+        }
         post(new Runnable() {
           @Override
           public void run() {
-            setImageBitmap(callable.call(message));
+            displayBitmap(decode(message), ImageMessages.getStampNanos(message));
           }
         });
         postInvalidate();
@@ -86,6 +460,105 @@ public class RosImageView<T> extends android.support.v7.widget.AppCompatImageVie
     });
   }
 
+  @Override
+  protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+    super.onSizeChanged(width, height, oldWidth, oldHeight);
+    viewWidth = width;
+    viewHeight = height;
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    super.onDraw(canvas);
+    Paint paint = statsOverlayPaint;
+    String[] lines = statsOverlayLines;
+    if (paint == null || lines == null) {
+      return;
+    }
+    float lineHeight = paint.getFontSpacing();
+    canvas.drawRect(0, 0, getWidth(), lineHeight * lines.length + lineHeight / 2,
+        statsOverlayBackgroundPaint);
+    for (int i = 0; i < lines.length; i++) {
+      canvas.drawText(lines[i], lineHeight / 2, lineHeight * (i + 1), paint);
+    }
+  }
+
+  private static String[] formatStats(ImagePipelineStats stats) {
+    return new String[] {
+        String.format(Locale.ENGLISH, "receive %.1f fps, display %.1f fps, dropped %d",
+            stats.getReceiveRate(), stats.getDisplayRate(), stats.getDroppedFrameCount()),
+        String.format(Locale.ENGLISH, "decode p50 %.1f ms, p95 %.1f ms",
+            stats.getDecodeTimeP50Millis(), stats.getDecodeTimeP95Millis()),
+        String.format(Locale.ENGLISH, "%.1f kB/s, latency %.0f ms",
+            stats.getBytesPerSecond() / 1024, stats.getLatencyMillis()) };
+  }
+
+  private Bitmap decode(T message) {
+    long startNanos = System.nanoTime();
+    Bitmap result = decodeZoomRegion(message);
+    if (result == null) {
+      if (sizeAwareCallable != null) {
+        result = sizeAwareCallable.call(message, viewWidth, viewHeight);
+      } else {
+        result = callable.call(message);
+      }
+    }
+    stats.onFrameDecoded(System.nanoTime() - startNanos);
+    return result;
+  }
+
+  /**
+   * @return the visible region of the frame, or {@code null} if not zoomed in
+   */
+  private Bitmap decodeZoomRegion(T message) {
+    if (!zoomEnabled || regionCallable == null) {
+      return null;
+    }
+    // Decodes are serialized on the region to keep it allocation free.
+    synchronized (decodeRegion) {
+      if (!getZoomRegion(decodeRegion)) {
+        return null;
+      }
+      return regionCallable.call(message, decodeRegion, viewWidth, viewHeight);
+    }
+  }
+
+  /**
+   * Hands a bitmap decoded off the UI thread over to the UI thread. A decoded
+   * bitmap that is replaced before it was displayed is dropped.
+   */
+  private void postDecodedBitmap(Bitmap nextBitmap, long stampNanos) {
+    if (nextBitmap == null) {
+      return;
+    }
+    DecodedFrame droppedFrame = pendingFrame.getAndSet(new DecodedFrame(nextBitmap, stampNanos));
+    if (droppedFrame == null) {
+      post(displayPendingBitmap);
+      return;
+    }
+    stats.onFrameDropped();
+    if (bitmapPool != null && droppedFrame.bitmap != nextBitmap) {
+      bitmapPool.put(droppedFrame.bitmap);
+    }
+  }
+
+  private void displayBitmap(Bitmap nextBitmap, long stampNanos) {
+    swapImageBitmap(nextBitmap);
+    stats.onFrameDisplayed(stampNanos);
+    BitmapMemoryBudget budget = BitmapMemoryBudget.getInstance();
+    budget.touch(this);
+    budget.enforce();
+  }
+
+  private void swapImageBitmap(Bitmap nextBitmap) {
+    Bitmap previousBitmap = bitmap;
+    setImageBitmap(nextBitmap);
+    bitmap = nextBitmap;
+    if (bitmapPool != null && previousBitmap != null && previousBitmap != nextBitmap) {
+      bitmapPool.put(previousBitmap);
+    }
+  }
+
   @Override
   public void onShutdown(Node node) {
   }
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import org.ros.android.BitmapMemoryBudget;
+import org.ros.android.BitmapPool;
+import org.ros.android.MessageCallable;
+import org.ros.android.SizeAwareMessageCallable;
+import org.ros.message.MessageListener;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.NodeMain;
+import org.ros.node.topic.Subscriber;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Displays incoming image messages on a {@link SurfaceView}.
+ * <p>
+ * Frames are decoded and drawn on a decode thread, so neither the view
+ * hierarchy nor the UI thread is involved in showing a frame. Only the newest
+ * received frame is decoded. The last drawn bitmap is kept to redraw the
+ * surface when it changes, the one before it goes back to the
+ * {@link BitmapPool}.
+ */
+public class RosSurfaceImageView<T> extends SurfaceView implements NodeMain,
+    BitmapMemoryBudget.Consumer {
+
+  private String topicName;
+  private String messageType;
+  private MessageCallable<Bitmap, T> callable;
+  // The same callable if it is size aware, otherwise null.
+  private SizeAwareMessageCallable<Bitmap, T> sizeAwareCallable;
+  private BitmapPool bitmapPool;
+  private Executor decodeExecutor;
+  private ImageDecodeWorker ownDecodeWorker;
+
+  private final AtomicReference<T> pendingMessage = new AtomicReference<T>();
+  private final ImagePipelineStats stats = new ImagePipelineStats();
+  private final Runnable decodePendingMessage = new Runnable() {
+    @Override
+    public void run() {
+      T message = pendingMessage.getAndSet(null);
+      if (message != null) {
+        long startNanos = System.nanoTime();
+        Bitmap bitmap = decode(message);
+        stats.onFrameDecoded(System.nanoTime() - startNanos);
+        if (bitmap != null) {
+          drawFrame(bitmap, ImageMessages.getStampNanos(message));
+        }
+      }
+    }
+  };
+
+  // Guards the surface and the bitmaps drawn on it.
+  private final Object surfaceMutex = new Object();
+  private final RectF destination = new RectF();
+  private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private boolean surfaceValid;
+  private Bitmap frontBitmap;
+  private volatile int surfaceWidth;
+  private volatile int surfaceHeight;
+
+  private final class SurfaceHolderCallback implements SurfaceHolder.Callback {
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+      surfaceWidth = width;
+      surfaceHeight = height;
+      synchronized (surfaceMutex) {
+        surfaceValid = true;
+        if (frontBitmap != null) {
+          drawBitmap(frontBitmap);
+        }
+      }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+      synchronized (surfaceMutex) {
+        surfaceValid = false;
+      }
+    }
+  }
+
+  public RosSurfaceImageView(Context context) {
+    super(context);
+    init();
+  }
+
+  public RosSurfaceImageView(Context context, AttributeSet attrs) {
+    super(context, attrs);
+    init();
+  }
+
+  public RosSurfaceImageView(Context context, AttributeSet attrs, int defStyle) {
+    super(context, attrs, defStyle);
+    init();
+  }
+
+  private void init() {
+    getHolder().addCallback(new SurfaceHolderCallback());
+  }
+
+  public void setTopicName(String topicName) {
+    this.topicName = topicName;
+  }
+
+  public void setMessageType(String messageType) {
+    this.messageType = messageType;
+  }
+
+  /**
+   * If the callable is a {@link SizeAwareMessageCallable}, it is passed the
+   * current size of the surface with every message.
+   */
+  public void setMessageToBitmapCallable(MessageCallable<Bitmap, T> callable) {
+    this.callable = callable;
+    sizeAwareCallable = null;
+    if (callable instanceof SizeAwareMessageCallable) {
+      sizeAwareCallable = (SizeAwareMessageCallable<Bitmap, T>) callable;
+    }
+  }
+
+  /**
+   * Bitmaps that are no longer needed to redraw the surface are returned to the
+   * given pool. Use the same pool for the {@link MessageCallable}.
+   */
+  public void setBitmapPool(BitmapPool bitmapPool) {
+    this.bitmapPool = bitmapPool;
+  }
+
+  /**
+   * Sets the executor frames are decoded and drawn on. Must be called before
+   * the node is started. By default a single {@link ImageDecodeWorker} owned by
+   * this view is used. Executors other than {@link ImageDecodeWorker} must not
+   * drop tasks.
+   */
+  public void setDecodeExecutor(Executor decodeExecutor) {
+    this.decodeExecutor = decodeExecutor;
+  }
+
+  public ImagePipelineStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public GraphName getDefaultNodeName() {
+    return GraphName.of("ros_surface_image_view");
+  }
+
+  @Override
+  public void onStart(ConnectedNode connectedNode) {
+    if (decodeExecutor == null) {
+      ownDecodeWorker = new ImageDecodeWorker();
+      decodeExecutor = ownDecodeWorker;
+    }
+    final Executor executor = decodeExecutor;
+    Subscriber<T> subscriber = connectedNode.newSubscriber(topicName, messageType);
+    subscriber.addMessageListener(new MessageListener<T>() {
+      @Override
+      public void onNewMessage(T message) {
+        stats.onFrameReceived(ImageMessages.getDataSize(message));
+        if (pendingMessage.getAndSet(message) != null) {
+          stats.onFrameDropped();
+        } else {
+          ImageDecodeWorker.executeCoalesced(executor, decodePendingMessage);
+        }
+      }
+    });
+  }
+
+  private Bitmap decode(T message) {
+    if (sizeAwareCallable != null) {
+      return sizeAwareCallable.call(message, surfaceWidth, surfaceHeight);
+    }
+    return callable.call(message);
+  }
+
+  private void drawFrame(Bitmap bitmap, long stampNanos) {
+    Bitmap backBitmap;
+    boolean drawn;
+    synchronized (surfaceMutex) {
+      drawn = surfaceValid && drawBitmap(bitmap);
+      backBitmap = drawn ? frontBitmap : null;
+      if (drawn) {
+        frontBitmap = bitmap;
+      }
+    }
+    // Bitmaps are returned outside of the surface mutex since the pool notifies
+    // the memory budget, which in turn queries this view.
+    if (!drawn) {
+      stats.onFrameDropped();
+      if (bitmapPool != null) {
+        bitmapPool.put(bitmap);
+      }
+      return;
+    }
+    stats.onFrameDisplayed(stampNanos);
+    if (bitmapPool != null && backBitmap != null && backBitmap != bitmap) {
+      bitmapPool.put(backBitmap);
+    }
+    BitmapMemoryBudget budget = BitmapMemoryBudget.getInstance();
+    budget.touch(this);
+    budget.enforce();
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    BitmapMemoryBudget.getInstance().register(this);
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    BitmapMemoryBudget.getInstance().unregister(this);
+    super.onDetachedFromWindow();
+  }
+
+  @Override
+  public long getBitmapBytes() {
+    synchronized (surfaceMutex) {
+      return frontBitmap == null ? 0 : frontBitmap.getByteCount();
+    }
+  }
+
+  /**
+   * Releases the last drawn frame. The surface keeps showing it, it just cannot
+   * be redrawn until the next frame arrives.
+   */
+  @Override
+  public long trimBitmapMemory(long bytes) {
+    synchronized (surfaceMutex) {
+      if (frontBitmap == null) {
+        return 0;
+      }
+      long released = frontBitmap.getByteCount();
+      frontBitmap = null;
+      return released;
+    }
+  }
+
+  /**
+   * Draws the bitmap scaled to fit the center of the surface. Must be called
+   * while holding the surface mutex.
+   *
+   * @return {@code true} if the bitmap was drawn
+   */
+  private boolean drawBitmap(Bitmap bitmap) {
+    SurfaceHolder holder = getHolder();
+    Canvas canvas = holder.lockCanvas();
+    if (canvas == null) {
+      return false;
+    }
+    try {
+      float scale =
+          Math.min((float) canvas.getWidth() / bitmap.getWidth(),
+              (float) canvas.getHeight() / bitmap.getHeight());
+      float width = bitmap.getWidth() * scale;
+      float height = bitmap.getHeight() * scale;
+      float left = (canvas.getWidth() - width) / 2;
+      float top = (canvas.getHeight() - height) / 2;
+      destination.set(left, top, left + width, top + height);
+      canvas.drawColor(Color.BLACK);
+      canvas.drawBitmap(bitmap, null, destination, paint);
+    } finally {
+      holder.unlockCanvasAndPost(canvas);
+    }
+    return true;
+  }
+
+  @Override
+  public void onShutdown(Node node) {
+    if (ownDecodeWorker != null) {
+      ownDecodeWorker.shutdown();
+      ownDecodeWorker = null;
+      decodeExecutor = null;
+    }
+  }
+
+  @Override
+  public void onShutdownComplete(Node node) {
+  }
+
+  @Override
+  public void onError(Node node, Throwable throwable) {
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.exception.RosRuntimeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The intrinsic calibration of a camera at a given resolution.
+ * <p>
+ * Calibrations are usually loaded once from the YAML files written by the ROS
+ * camera_calibration tools, see {@link #fromYaml(InputStream)}.
+ */
+public class CameraCalibration {
+
+  private static final Pattern SCALAR = Pattern.compile("^(\\w+):[ \\t]*(\\S*)[ \\t]*$",
+      Pattern.MULTILINE);
+
+  private final int width;
+  private final int height;
+  private final String distortionModel;
+  private final double[] d;
+  private final double[] k;
+  private final double[] r;
+  private final double[] p;
+
+  /**
+   * @param d
+   *          the distortion coefficients
+   * @param k
+   *          the 3x3 intrinsic matrix in row-major order
+   * @param r
+   *          the 3x3 rectification matrix in row-major order
+   * @param p
+   *          the 3x4 projection matrix in row-major order
+   */
+  public CameraCalibration(int width, int height, String distortionModel, double[] d, double[] k,
+      double[] r, double[] p) {
+    Preconditions.checkArgument(width > 0 && height > 0);
+    Preconditions.checkArgument(k.length == 9 && r.length == 9 && p.length == 12);
+    this.width = width;
+    this.height = height;
+    this.distortionModel = distortionModel;
+    this.d = d.clone();
+    this.k = k.clone();
+    this.r = r.clone();
+    this.p = p.clone();
+  }
+
+  /**
+   * Reads a calibration in the YAML format of camera_info_manager. Only the
+   * fields of that format are understood.
+   */
+  public static CameraCalibration fromYaml(InputStream stream) {
+    String yaml;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int length;
+      while ((length = stream.read(buffer)) != -1) {
+        bytes.write(buffer, 0, length);
+      }
+      yaml = bytes.toString("UTF-8");
+    } catch (IOException e) {
+      throw new RosRuntimeException(e);
+    }
+    int width = -1;
+    int height = -1;
+    String distortionModel = "plumb_bob";
+    Matcher matcher = SCALAR.matcher(yaml);
+    while (matcher.find()) {
+      String key = matcher.group(1);
+      String value = matcher.group(2);
+      if (key.equals("image_width")) {
+        width = Integer.parseInt(value);
+      } else if (key.equals("image_height")) {
+        height = Integer.parseInt(value);
+      } else if (key.equals("distortion_model") && !value.isEmpty()) {
+        distortionModel = value;
+      }
+    }
+    Preconditions.checkArgument(width > 0 && height > 0, "Missing image size.");
+    return new CameraCalibration(width, height, distortionModel,
+        readMatrix(yaml, "distortion_coefficients"), readMatrix(yaml, "camera_matrix"),
+        readMatrix(yaml, "rectification_matrix"), readMatrix(yaml, "projection_matrix"));
+  }
+
+  private static double[] readMatrix(String yaml, String key) {
+    Matcher matcher =
+        Pattern.compile("^" + key + ":[^\\[]*?data:\\s*\\[([^\\]]*)\\]",
+            Pattern.MULTILINE | Pattern.DOTALL).matcher(yaml);
+    Preconditions.checkArgument(matcher.find(), "Missing " + key + ".");
+    String data = matcher.group(1).trim();
+    if (data.isEmpty()) {
+      return new double[0];
+    }
+    String[] values = data.split("\\s*,\\s*");
+    double[] matrix = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      matrix[i] = Double.parseDouble(values[i].trim());
+    }
+    return matrix;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public String getDistortionModel() {
+    return distortionModel;
+  }
+
+  /**
+   * @return a copy of the distortion coefficients
+   */
+  public double[] getD() {
+    return d.clone();
+  }
+
+  /**
+   * @return a copy of the intrinsic matrix
+   */
+  public double[] getK() {
+    return k.clone();
+  }
+
+  /**
+   * @return a copy of the rectification matrix
+   */
+  public double[] getR() {
+    return r.clone();
+  }
+
+  /**
+   * @return a copy of the projection matrix
+   */
+  public double[] getP() {
+    return p.clone();
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Rect;
+import org.ros.android.MessageSerializationTracker;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+/**
+ * Publishes the sensor_msgs/CameraInfo that goes with published frames.
+ * <p>
+ * The calibration is set once and adjusted to the geometry of the published
+ * frames, e.g. scaled and cropped simulcast outputs, only when that geometry
+ * changes. The message is reused for every publication once rosjava has
+ * serialized it, which requires the {@link MessageSerializationTracker} to be
+ * installed; otherwise a new message is filled for every publication. Camera
+ * info may be published at a lower rate than frames.
+ */
+public class CameraInfoPublisher implements MessageSerializationTracker.Listener {
+
+  private final Publisher<sensor_msgs.CameraInfo> publisher;
+  private final String frameId;
+  private final boolean tracked;
+
+  private CameraCalibration calibration;
+  private long minimumIntervalNanos;
+  private long lastPublishedNanos;
+
+  // The geometry the cached matrices were computed for.
+  private CameraCalibration cachedCalibration;
+  private int sourceWidth;
+  private int sourceHeight;
+  private final Rect crop;
+  private int width;
+  private int height;
+  private double[] k;
+  private double[] p;
+
+  private sensor_msgs.CameraInfo message;
+  private boolean messageReusable;
+  private boolean messageCurrent;
+
+  public CameraInfoPublisher(ConnectedNode connectedNode, GraphName topicName, String frameId) {
+    publisher = connectedNode.newPublisher(topicName, sensor_msgs.CameraInfo._TYPE);
+    this.frameId = frameId;
+    tracked = MessageSerializationTracker.isInstalled(connectedNode);
+    crop = new Rect();
+    if (tracked) {
+      MessageSerializationTracker.getInstance().addListener(sensor_msgs.CameraInfo._TYPE, this);
+    }
+  }
+
+  /**
+   * @param calibration
+   *          the calibration of the camera, or {@code null} to only publish
+   *          the image size
+   */
+  public synchronized void setCalibration(CameraCalibration calibration) {
+    this.calibration = calibration;
+    messageCurrent = false;
+  }
+
+  /**
+   * @param rate
+   *          the maximum number of messages per second, or 0 to publish with
+   *          every frame
+   */
+  public synchronized void setMaximumRate(float rate) {
+    Preconditions.checkArgument(rate >= 0);
+    minimumIntervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+  }
+
+  /**
+   * Publishes the camera info for a frame unless the maximum rate has been
+   * reached.
+   *
+   * @param sourceWidth
+   *          the width of the captured frame
+   * @param sourceHeight
+   *          the height of the captured frame
+   * @param crop
+   *          the published region of the captured frame
+   * @param width
+   *          the width of the published frame
+   * @param height
+   *          the height of the published frame
+   */
+  public synchronized void publish(Time stamp, int sourceWidth, int sourceHeight, Rect crop,
+      int width, int height) {
+    long nowNanos = System.nanoTime();
+    if (minimumIntervalNanos > 0 && lastPublishedNanos != 0
+        && nowNanos - lastPublishedNanos < minimumIntervalNanos) {
+      return;
+    }
+    lastPublishedNanos = nowNanos;
+    if (cachedCalibration != calibration || this.sourceWidth != sourceWidth
+        || this.sourceHeight != sourceHeight || !this.crop.equals(crop) || this.width != width
+        || this.height != height) {
+      updateGeometry(sourceWidth, sourceHeight, crop, width, height);
+    }
+    // A reused message would keep the matrices of a calibration that was removed.
+    if (message == null || !messageReusable || (!messageCurrent && cachedCalibration == null)) {
+      message = publisher.newMessage();
+      messageCurrent = false;
+    }
+    if (!messageCurrent) {
+      fillMessage();
+    }
+    message.getHeader().setStamp(stamp);
+    messageReusable = false;
+    publisher.publish(message);
+  }
+
+  private void updateGeometry(int sourceWidth, int sourceHeight, Rect crop, int width,
+      int height) {
+    cachedCalibration = calibration;
+    this.sourceWidth = sourceWidth;
+    this.sourceHeight = sourceHeight;
+    this.crop.set(crop);
+    this.width = width;
+    this.height = height;
+    messageCurrent = false;
+    if (calibration == null) {
+      k = null;
+      p = null;
+      return;
+    }
+    double[][] matrices = scaleMatrices(calibration, sourceWidth, sourceHeight, crop.left,
+        crop.top, crop.width(), crop.height(), width, height);
+    k = matrices[0];
+    p = matrices[1];
+  }
+
+  /**
+   * Scales the intrinsic and projection matrices of a calibration to the
+   * captured frame, then to a region of it scaled to the published size.
+   *
+   * @return the scaled intrinsic matrix K followed by the projection matrix P
+   */
+  static double[][] scaleMatrices(CameraCalibration calibration, int sourceWidth,
+      int sourceHeight, int cropLeft, int cropTop, int cropWidth, int cropHeight, int width,
+      int height) {
+    double scaleX = (double) sourceWidth / calibration.getWidth() * width / cropWidth;
+    double scaleY = (double) sourceHeight / calibration.getHeight() * height / cropHeight;
+    double offsetX = (double) cropLeft * width / cropWidth;
+    double offsetY = (double) cropTop * height / cropHeight;
+    double[] k = calibration.getK();
+    k[0] *= scaleX;
+    k[1] *= scaleX;
+    k[2] = k[2] * scaleX - offsetX;
+    k[4] *= scaleY;
+    k[5] = k[5] * scaleY - offsetY;
+    double[] p = calibration.getP();
+    p[0] *= scaleX;
+    p[1] *= scaleX;
+    p[2] = p[2] * scaleX - offsetX;
+    p[3] *= scaleX;
+    p[5] *= scaleY;
+    p[6] = p[6] * scaleY - offsetY;
+    p[7] *= scaleY;
+    return new double[][] { k, p };
+  }
+
+  private void fillMessage() {
+    message.getHeader().setFrameId(frameId);
+    message.setWidth(width);
+    message.setHeight(height);
+    if (cachedCalibration != null) {
+      // The arrays are never modified once computed, so messages may share them.
+      message.setDistortionModel(cachedCalibration.getDistortionModel());
+      message.setD(cachedCalibration.getD());
+      message.setK(k);
+      message.setR(cachedCalibration.getR());
+      message.setP(p);
+    }
+    messageCurrent = true;
+  }
+
+  @Override
+  public synchronized void onMessageSerialized(Object message) {
+    if (message == this.message) {
+      messageReusable = true;
+    }
+  }
+
+  public void shutdown() {
+    if (tracked) {
+      MessageSerializationTracker.getInstance().removeListener(sensor_msgs.CameraInfo._TYPE,
+          this);
+    }
+  }
+}
@@ -24,6 +24,7 @@ import android.hardware.Camera;
 import android.hardware.Camera.PreviewCallback;
 import android.hardware.Camera.Size;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
@@ -38,26 +39,56 @@ import java.util.List;
  * 
  * @author damonkohler@google.com (Damon Kohler)
  */
-public class CameraPreviewView extends ViewGroup {
+public class CameraPreviewView extends ViewGroup implements FrameSource {
+
+  private static final String TAG = "CameraPreviewView";
 
   private final static double ASPECT_TOLERANCE = 0.1;
+  // Enough to keep a few encoding threads busy while the camera keeps capturing.
+  private final static int DEFAULT_PREVIEW_BUFFER_COUNT = 5;
 
   private SurfaceHolder surfaceHolder;
   private Camera camera;
   private Size previewSize;
-  private byte[] previewBuffer;
-  private RawImageListener rawImageListener;
+  private volatile FrameListener frameListener;
   private BufferingPreviewCallback bufferingPreviewCallback;
+  private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+  private final CaptureConfigurationPlanner planner = new CaptureConfigurationPlanner();
+  private CaptureTarget captureTarget;
+  private CaptureConfiguration captureConfiguration;
+
+  // Guards the camera and the ring of preview buffers, which are released from
+  // the threads of the frame listener.
+  private final Object previewBufferMutex = new Object();
+  private byte[][] previewBuffers;
+  private boolean[] previewBuffersInUse;
 
   private final class BufferingPreviewCallback implements PreviewCallback {
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
-      Preconditions.checkArgument(camera == CameraPreviewView.this.camera);
-      Preconditions.checkArgument(data == previewBuffer);
-      if (rawImageListener != null) {
-        rawImageListener.onNewRawImage(data, previewSize);
+      // The legacy camera API has no capture timestamps, the time of the
+      // callback is the closest approximation.
+      long timestampNanos = System.nanoTime();
+      int width;
+      int height;
+      synchronized (previewBufferMutex) {
+        Preconditions.checkArgument(camera == CameraPreviewView.this.camera);
+        int index = getPreviewBufferIndex(data);
+        if (index < 0) {
+          // Captured before the preview was reconfigured.
+          return;
+        }
+        previewBuffersInUse[index] = true;
+        width = previewSize.width;
+        height = previewSize.height;
+      }
+      FrameListener frameListener = CameraPreviewView.this.frameListener;
+      if (frameListener != null) {
+        frameListener.onNewFrame(data, width, height, ImageFormat.NV21, timestampNanos,
+            CameraPreviewView.this);
+      } else {
+        releaseFrame(data);
       }
-      camera.addCallbackBuffer(previewBuffer);
     }
   }
 
@@ -108,28 +139,139 @@ public class CameraPreviewView extends ViewGroup {
   }
 
   public void releaseCamera() {
-    if (camera == null) {
-      return;
+    synchronized (previewBufferMutex) {
+      if (camera == null) {
+        return;
+      }
+      camera.setPreviewCallbackWithBuffer(null);
+      camera.stopPreview();
+      camera.release();
+      camera = null;
+      previewBuffers = null;
+      previewBuffersInUse = null;
     }
-    camera.setPreviewCallbackWithBuffer(null);
-    camera.stopPreview();
-    camera.release();
-    camera = null;
   }
 
-  public void setRawImageListener(RawImageListener rawImageListener) {
-    this.rawImageListener = rawImageListener;
+  @Override
+  public void setFrameListener(FrameListener frameListener) {
+    this.frameListener = frameListener;
+  }
+
+  @Override
+  public void releaseFrame(byte[] data) {
+    synchronized (previewBufferMutex) {
+      // Buffers of a released camera or a previous preview size are dropped.
+      int index = getPreviewBufferIndex(data);
+      if (camera == null || index < 0) {
+        return;
+      }
+      Preconditions.checkState(previewBuffersInUse[index], "Preview buffer released twice.");
+      previewBuffersInUse[index] = false;
+      camera.addCallbackBuffer(data);
+    }
+  }
+
+  /**
+   * Sets the number of preview buffers the camera captures into. With more
+   * than one buffer, the camera keeps capturing while the frame listener
+   * still holds on to earlier frames. Takes effect with the next call to
+   * {@link #setCamera(Camera)}.
+   */
+  public void setPreviewBufferCount(int previewBufferCount) {
+    Preconditions.checkArgument(previewBufferCount > 0);
+    this.previewBufferCount = previewBufferCount;
   }
 
   public Size getPreviewSize() {
     return previewSize;
   }
 
+  /**
+   * Chooses the preview size and frame rate range from what is to be
+   * published rather than from the size of the view, see
+   * {@link CaptureConfigurationPlanner}. If a camera is set, the preview is
+   * reconfigured right away without releasing the camera. Must be called on
+   * the UI thread.
+   *
+   * @param captureTarget
+   *          the target, or {@code null} to fit the preview to the view again
+   * @throws IllegalArgumentException
+   *           if the camera cannot meet the target
+   * @throws RuntimeException
+   *           if the camera rejects the planned parameters, in which case the
+   *           previous configuration is restored
+   */
+  public void setCaptureTarget(CaptureTarget captureTarget) {
+    CaptureConfiguration captureConfiguration;
+    synchronized (previewBufferMutex) {
+      if (camera != null && captureTarget != null) {
+        // Fail before the preview is stopped.
+        planner.plan(captureTarget, camera.getParameters());
+      }
+      if (camera == null) {
+        this.captureTarget = captureTarget;
+        return;
+      }
+      CaptureTarget previousCaptureTarget = this.captureTarget;
+      CaptureConfiguration previousCaptureConfiguration = this.captureConfiguration;
+      Camera.Parameters previousParameters = camera.getParameters();
+      Size previousPreviewSize = previewSize;
+      this.captureTarget = captureTarget;
+      camera.setPreviewCallbackWithBuffer(null);
+      camera.stopPreview();
+      try {
+        setupCameraParameters();
+      } catch (RuntimeException e) {
+        // Keep the node alive with the previous configuration.
+        this.captureTarget = previousCaptureTarget;
+        this.captureConfiguration = previousCaptureConfiguration;
+        previewSize = previousPreviewSize;
+        try {
+          camera.setParameters(previousParameters);
+          setupBufferingPreviewCallback();
+          camera.startPreview();
+        } catch (RuntimeException restoreException) {
+          Log.e(TAG, "Failed to restore the previous camera configuration.", restoreException);
+        }
+        throw e;
+      }
+      setupBufferingPreviewCallback();
+      camera.startPreview();
+      captureConfiguration = this.captureConfiguration;
+    }
+    onCaptureConfigurationChanged(captureConfiguration);
+    requestLayout();
+  }
+
+  /**
+   * @return the configuration planned for the current capture target, or
+   *         {@code null} if there is none or no camera has been set
+   */
+  public CaptureConfiguration getCaptureConfiguration() {
+    synchronized (previewBufferMutex) {
+      return captureConfiguration;
+    }
+  }
+
+  /**
+   * Called after the camera has been configured for a new capture target.
+   *
+   * @param captureConfiguration
+   *          the new configuration, or {@code null} if the capture target has
+   *          been cleared
+   */
+  protected void onCaptureConfigurationChanged(CaptureConfiguration captureConfiguration) {
+  }
+
   public void setCamera(Camera camera) {
     Preconditions.checkNotNull(camera);
-    this.camera = camera;
-    setupCameraParameters();
-    setupBufferingPreviewCallback();
+    CaptureConfiguration captureConfiguration;
+    synchronized (previewBufferMutex) {
+      this.camera = camera;
+      setupCameraParameters();
+      setupBufferingPreviewCallback();
+      captureConfiguration = this.captureConfiguration;
+    }
     camera.startPreview();
     try {
       // This may have no effect if the SurfaceHolder is not yet created.
@@ -137,15 +279,34 @@ public class CameraPreviewView extends ViewGroup {
     } catch (IOException e) {
       throw new RosRuntimeException(e);
     }
+    if (captureConfiguration != null) {
+      onCaptureConfigurationChanged(captureConfiguration);
+    }
   }
 
   private void setupCameraParameters() {
     Camera.Parameters parameters = camera.getParameters();
-    List<Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
-    previewSize = getOptimalPreviewSize(supportedPreviewSizes, getWidth(), getHeight());
-    parameters.setPreviewSize(previewSize.width, previewSize.height);
+    if (captureTarget != null) {
+      captureConfiguration = planner.plan(captureTarget, parameters);
+      parameters.setPreviewSize(captureConfiguration.getPreviewWidth(),
+          captureConfiguration.getPreviewHeight());
+      parameters.setPreviewFpsRange(captureConfiguration.getMinimumPreviewFrameRate(),
+          captureConfiguration.getMaximumPreviewFrameRate());
+    } else {
+      captureConfiguration = null;
+      List<Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
+      Size size = getOptimalPreviewSize(supportedPreviewSizes, getWidth(), getHeight());
+      parameters.setPreviewSize(size.width, size.height);
+    }
     parameters.setPreviewFormat(ImageFormat.NV21);
     camera.setParameters(parameters);
+    // Some cameras silently ignore parameters they do not support.
+    previewSize = camera.getParameters().getPreviewSize();
+    if (captureConfiguration != null) {
+      Preconditions.checkState(previewSize.width == captureConfiguration.getPreviewWidth()
+          && previewSize.height == captureConfiguration.getPreviewHeight(),
+          "The camera rejected the preview size of " + captureConfiguration + ".");
+    }
   }
 
   private Size getOptimalPreviewSize(List<Size> sizes, int width, int height) {
@@ -184,14 +345,36 @@ public class CameraPreviewView extends ViewGroup {
   private void setupBufferingPreviewCallback() {
     int format = camera.getParameters().getPreviewFormat();
     int bits_per_pixel = ImageFormat.getBitsPerPixel(format);
-    previewBuffer = new byte[previewSize.height * previewSize.width * bits_per_pixel / 8];
-    camera.addCallbackBuffer(previewBuffer);
+    int bufferSize = previewSize.height * previewSize.width * bits_per_pixel / 8;
+    previewBuffers = new byte[previewBufferCount][];
+    previewBuffersInUse = new boolean[previewBufferCount];
+    for (int i = 0; i < previewBufferCount; i++) {
+      previewBuffers[i] = new byte[bufferSize];
+      camera.addCallbackBuffer(previewBuffers[i]);
+    }
     camera.setPreviewCallbackWithBuffer(bufferingPreviewCallback);
   }
 
+  /**
+   * Must be called while holding the preview buffer mutex.
+   *
+   * @return the index of the buffer in the ring, or -1 if it is not part of it
+   */
+  private int getPreviewBufferIndex(byte[] data) {
+    if (previewBuffers != null) {
+      for (int i = 0; i < previewBuffers.length; i++) {
+        if (previewBuffers[i] == data) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
   @Override
   protected void onLayout(boolean changed, int l, int t, int r, int b) {
-    if (changed && getChildCount() > 0) {
+    // The preview size may change without the size of the view changing.
+    if (getChildCount() > 0) {
       final View child = getChildAt(0);
       final int width = r - l;
       final int height = b - t;
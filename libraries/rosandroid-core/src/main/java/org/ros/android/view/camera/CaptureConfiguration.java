@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+/**
+ * A preview size, preview frame rate range and publish size chosen together
+ * by a {@link CaptureConfigurationPlanner}.
+ */
+public final class CaptureConfiguration {
+
+  private final CaptureTarget target;
+  private final int previewWidth;
+  private final int previewHeight;
+  private final int minimumPreviewFrameRate;
+  private final int maximumPreviewFrameRate;
+  private final int publishWidth;
+  private final int publishHeight;
+  private final float frameRate;
+  private final int estimatedBitrate;
+
+  CaptureConfiguration(CaptureTarget target, int previewWidth, int previewHeight,
+      int minimumPreviewFrameRate, int maximumPreviewFrameRate, int publishWidth,
+      int publishHeight, float frameRate, int estimatedBitrate) {
+    this.target = target;
+    this.previewWidth = previewWidth;
+    this.previewHeight = previewHeight;
+    this.minimumPreviewFrameRate = minimumPreviewFrameRate;
+    this.maximumPreviewFrameRate = maximumPreviewFrameRate;
+    this.publishWidth = publishWidth;
+    this.publishHeight = publishHeight;
+    this.frameRate = frameRate;
+    this.estimatedBitrate = estimatedBitrate;
+  }
+
+  public CaptureTarget getTarget() {
+    return target;
+  }
+
+  public int getPreviewWidth() {
+    return previewWidth;
+  }
+
+  public int getPreviewHeight() {
+    return previewHeight;
+  }
+
+  /**
+   * @return the lower end of the preview frame rate range, in frames per 1000
+   *         seconds as used by {@link android.hardware.Camera.Parameters}
+   */
+  public int getMinimumPreviewFrameRate() {
+    return minimumPreviewFrameRate;
+  }
+
+  /**
+   * @return the upper end of the preview frame rate range, in frames per 1000
+   *         seconds as used by {@link android.hardware.Camera.Parameters}
+   */
+  public int getMaximumPreviewFrameRate() {
+    return maximumPreviewFrameRate;
+  }
+
+  /**
+   * @return the width frames are scaled down to before they are published
+   */
+  public int getPublishWidth() {
+    return publishWidth;
+  }
+
+  public int getPublishHeight() {
+    return publishHeight;
+  }
+
+  /**
+   * @return the number of frames to publish per second
+   */
+  public float getFrameRate() {
+    return frameRate;
+  }
+
+  /**
+   * @return the expected bitrate of the published stream in bits per second
+   */
+  public int getEstimatedBitrate() {
+    return estimatedBitrate;
+  }
+
+  @Override
+  public String toString() {
+    return "preview " + previewWidth + "x" + previewHeight + " at " + minimumPreviewFrameRate
+        + "-" + maximumPreviewFrameRate + ", publish " + publishWidth + "x" + publishHeight
+        + " at " + frameRate + " fps, about " + estimatedBitrate + " bit/s";
+  }
+}
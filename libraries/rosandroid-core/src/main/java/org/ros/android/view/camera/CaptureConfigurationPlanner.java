@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.hardware.Camera;
+import android.hardware.Camera.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the preview size, the preview frame rate range and the publish size
+ * of a camera together from a {@link CaptureTarget}.
+ * <p>
+ * The preview size is the smallest supported size that covers the target,
+ * preferably with the same aspect ratio. The frame rate range is the
+ * narrowest supported range that contains the target frame rate, so the
+ * camera neither captures frames that are dropped nor lowers its rate in the
+ * dark more than necessary. If the stream would exceed the bitrate budget,
+ * the publish size is reduced first, down to half the target width, and then
+ * the frame rate. The bitrate is estimated from a fixed number of bits per
+ * pixel, see {@link #setBitsPerPixel(float)}.
+ */
+public class CaptureConfigurationPlanner {
+
+  private static final double ASPECT_TOLERANCE = 0.1;
+  // About what camera frames take as JPEG at the default quality of the
+  // JpegRateController.
+  private static final float DEFAULT_BITS_PER_PIXEL = 0.5f;
+  private static final float MINIMUM_PUBLISH_SCALE = 0.5f;
+  private static final float MINIMUM_FRAME_RATE = 1;
+
+  private float bitsPerPixel = DEFAULT_BITS_PER_PIXEL;
+
+  /**
+   * Sets the number of bits a published pixel is expected to take, e.g.
+   * lower for low JPEG quality or static scenes.
+   */
+  public void setBitsPerPixel(float bitsPerPixel) {
+    Preconditions.checkArgument(bitsPerPixel > 0);
+    this.bitsPerPixel = bitsPerPixel;
+  }
+
+  /**
+   * Plans a configuration from the preview sizes and frame rate ranges the
+   * camera supports.
+   */
+  public CaptureConfiguration plan(CaptureTarget target, Camera.Parameters parameters) {
+    List<Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
+    Preconditions.checkNotNull(supportedPreviewSizes);
+    List<int[]> previewSizes = new ArrayList<int[]>(supportedPreviewSizes.size());
+    for (Size size : supportedPreviewSizes) {
+      previewSizes.add(new int[] { size.width, size.height });
+    }
+    return plan(target, previewSizes, parameters.getSupportedPreviewFpsRange());
+  }
+
+  /**
+   * @param previewSizes
+   *          the supported preview sizes as {@code {width, height}}
+   * @param previewFrameRateRanges
+   *          the supported preview frame rate ranges as {@code {minimum,
+   *          maximum}} in frames per 1000 seconds
+   * @throws IllegalArgumentException
+   *           if the camera supports no sizes or ranges, or the bitrate
+   *           budget cannot be met at a frame rate of at least 1 fps
+   */
+  public CaptureConfiguration plan(CaptureTarget target, List<int[]> previewSizes,
+      List<int[]> previewFrameRateRanges) {
+    Preconditions.checkNotNull(target);
+    Preconditions.checkArgument(previewSizes != null && !previewSizes.isEmpty(),
+        "No supported preview sizes.");
+    Preconditions.checkArgument(previewFrameRateRanges != null
+        && !previewFrameRateRanges.isEmpty(), "No supported preview frame rate ranges.");
+
+    int[] previewSize = choosePreviewSize(target, previewSizes);
+    int previewWidth = previewSize[0];
+    int previewHeight = previewSize[1];
+    int[] range = chooseFrameRateRange(target, previewFrameRateRanges);
+    float frameRate = Math.min(target.getFrameRate(), range[1] / 1000.0f);
+
+    // The largest publish size within the target and the preview.
+    int width = Math.min(Math.min(target.getWidth(), previewWidth),
+        (int) ((long) target.getHeight() * previewWidth / previewHeight));
+    int publishWidth = evenAtLeastTwo(width);
+    int publishHeight = getPublishHeight(publishWidth, previewWidth, previewHeight);
+
+    int budget = target.getMaximumBitrate();
+    if (budget > 0 && estimateBitrate(publishWidth, publishHeight, frameRate) > budget) {
+      double scale =
+          Math.sqrt(budget / estimateBitrate(publishWidth, publishHeight, frameRate));
+      publishWidth = evenAtLeastTwo((int) (width * Math.max(scale, MINIMUM_PUBLISH_SCALE)));
+      publishHeight = getPublishHeight(publishWidth, previewWidth, previewHeight);
+      double bitrate = estimateBitrate(publishWidth, publishHeight, frameRate);
+      if (bitrate > budget) {
+        frameRate = (float) (frameRate * budget / bitrate);
+        Preconditions.checkArgument(frameRate >= MINIMUM_FRAME_RATE,
+            "A budget of " + budget + " bit/s cannot be met for " + target + ".");
+      }
+    }
+    return new CaptureConfiguration(target, previewWidth, previewHeight, range[0], range[1],
+        publishWidth, publishHeight, frameRate,
+        (int) estimateBitrate(publishWidth, publishHeight, frameRate));
+  }
+
+  private static int[] choosePreviewSize(CaptureTarget target, List<int[]> sizes) {
+    double targetRatio = (double) target.getWidth() / target.getHeight();
+    int[] matchingSize = null;
+    int[] coveringSize = null;
+    int[] largestSize = null;
+    for (int[] size : sizes) {
+      long area = (long) size[0] * size[1];
+      if (largestSize == null || area > (long) largestSize[0] * largestSize[1]) {
+        largestSize = size;
+      }
+      if (size[0] < target.getWidth() || size[1] < target.getHeight()) {
+        continue;
+      }
+      if (coveringSize == null || area < (long) coveringSize[0] * coveringSize[1]) {
+        coveringSize = size;
+      }
+      double ratio = (double) size[0] / size[1];
+      if (Math.abs(ratio - targetRatio) <= ASPECT_TOLERANCE
+          && (matchingSize == null || area < (long) matchingSize[0] * matchingSize[1])) {
+        matchingSize = size;
+      }
+    }
+    if (matchingSize != null) {
+      return matchingSize;
+    }
+    // Cannot find one that matches the aspect ratio, ignore the requirement.
+    if (coveringSize != null) {
+      return coveringSize;
+    }
+    // The target is larger than the camera, get as close as possible.
+    return largestSize;
+  }
+
+  private static int[] chooseFrameRateRange(CaptureTarget target, List<int[]> ranges) {
+    float frameRate = target.getFrameRate() * 1000;
+    int[] bestRange = null;
+    float bestDistance = Float.MAX_VALUE;
+    for (int[] range : ranges) {
+      // The distance of the target to the range, 0 if the range contains it.
+      float distance = Math.max(0, Math.max(range[0] - frameRate, frameRate - range[1]));
+      if (distance < bestDistance || distance == bestDistance
+          && range[1] - range[0] < bestRange[1] - bestRange[0]) {
+        bestRange = range;
+        bestDistance = distance;
+      }
+    }
+    return bestRange;
+  }
+
+  private static int getPublishHeight(int publishWidth, int previewWidth, int previewHeight) {
+    return evenAtLeastTwo((int) ((long) previewHeight * publishWidth / previewWidth));
+  }
+
+  private static int evenAtLeastTwo(int value) {
+    return Math.max(2, value & ~1);
+  }
+
+  private double estimateBitrate(int width, int height, float frameRate) {
+    return (double) width * height * frameRate * bitsPerPixel;
+  }
+}
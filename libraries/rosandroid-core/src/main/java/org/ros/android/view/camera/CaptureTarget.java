@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * What a capture configuration should deliver, e.g. 640x480 at 30 fps under
+ * 4 Mbit/s. See {@link CaptureConfigurationPlanner}.
+ */
+public final class CaptureTarget {
+
+  private final int width;
+  private final int height;
+  private final float frameRate;
+  private final int maximumBitrate;
+
+  /**
+   * @param maximumBitrate
+   *          the budget of the published stream in bits per second, or 0 for
+   *          no budget
+   */
+  public CaptureTarget(int width, int height, float frameRate, int maximumBitrate) {
+    Preconditions.checkArgument(width > 0 && height > 0, "Invalid size.");
+    Preconditions.checkArgument(frameRate > 0, "Invalid frame rate.");
+    Preconditions.checkArgument(maximumBitrate >= 0, "Invalid bitrate.");
+    this.width = width;
+    this.height = height;
+    this.frameRate = frameRate;
+    this.maximumBitrate = maximumBitrate;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public float getFrameRate() {
+    return frameRate;
+  }
+
+  public int getMaximumBitrate() {
+    return maximumBitrate;
+  }
+
+  @Override
+  public String toString() {
+    return width + "x" + height + " at " + frameRate + " fps under " + maximumBitrate + " bit/s";
+  }
+}
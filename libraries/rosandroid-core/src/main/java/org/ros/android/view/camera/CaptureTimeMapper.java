@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import org.ros.message.Time;
+import org.ros.node.ConnectedNode;
+
+/**
+ * Maps capture timestamps on the {@link System#nanoTime()} clock to ROS time.
+ * <p>
+ * The offset between both clocks is measured by reading ROS time between two
+ * reads of the monotonic clock and is refreshed every {@link #RESYNC_NANOS},
+ * so the ROS clock may be adjusted, e.g. by NTP, while frames are published.
+ * Measurements where reading ROS time took unusually long are discarded in
+ * favour of the previous offset.
+ */
+class CaptureTimeMapper {
+
+  static final long RESYNC_NANOS = 1000000000L;
+
+  // Reading ROS time may be preempted, such a measurement is not trusted.
+  private static final long MAXIMUM_MEASUREMENT_NANOS = 1000000L;
+  private static final int MAXIMUM_MEASUREMENT_ATTEMPTS = 3;
+
+  private final ConnectedNode connectedNode;
+
+  private boolean hasOffset;
+  private long offsetNanos;
+  private long lastSyncNanos;
+
+  CaptureTimeMapper(ConnectedNode connectedNode) {
+    this.connectedNode = connectedNode;
+  }
+
+  /**
+   * @return the ROS time at which the monotonic clock read
+   *         {@code monotonicNanos}
+   */
+  synchronized Time toRosTime(long monotonicNanos) {
+    long nowNanos = System.nanoTime();
+    if (!hasOffset || nowNanos - lastSyncNanos >= RESYNC_NANOS) {
+      measureOffset();
+    }
+    return Time.fromNano(monotonicNanos + offsetNanos);
+  }
+
+  private void measureOffset() {
+    for (int i = 0; i < MAXIMUM_MEASUREMENT_ATTEMPTS; i++) {
+      long beforeNanos = System.nanoTime();
+      long rosNanos = connectedNode.getCurrentTime().totalNsecs();
+      long afterNanos = System.nanoTime();
+      // Fall back to a slow measurement if there is no offset yet.
+      if (afterNanos - beforeNanos <= MAXIMUM_MEASUREMENT_NANOS
+          || (!hasOffset && i == MAXIMUM_MEASUREMENT_ATTEMPTS - 1)) {
+        offsetNanos = rosNanos - (beforeNanos + (afterNanos - beforeNanos) / 2);
+        hasOffset = true;
+        break;
+      }
+    }
+    lastSyncNanos = System.nanoTime();
+  }
+}
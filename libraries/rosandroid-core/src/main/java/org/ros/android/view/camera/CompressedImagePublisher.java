@@ -20,74 +20,613 @@ import com.google.common.base.Preconditions;
 
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.YuvImage;
-import android.hardware.Camera.Size;
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.internal.message.MessageBuffers;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.android.MessagePool;
+import org.ros.android.MessageSerializationTracker;
+import org.ros.android.NativeJpegEncoder;
 import org.ros.message.Time;
 import org.ros.namespace.NameResolver;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
 /**
- * Publishes preview frames.
+ * Publishes frames from a {@link FrameSource}, e.g. the camera preview of a
+ * {@link RosCameraPreviewView}.
+ * <p>
+ * Depending on the {@link PublishMode}, frames are compressed to JPEG or
+ * published uncompressed as sensor_msgs/Image, which trades bandwidth for CPU
+ * time. The mode can be changed while publishing.
+ * <p>
+ * Frames are compressed on a {@link ParallelFrameEncoder}, so the camera
+ * callback thread only stamps and queues them. Frames are stamped with their
+ * capture time mapped to ROS time by a {@link CaptureTimeMapper}. Frames are not encoded at all
+ * while nobody subscribes to the image topic. A {@link JpegRateController}
+ * decides which frames are encoded and at which quality.
+ * <p>
+ * Compressed images are written into buffers from an {@link ImageBufferPool}.
+ * If the node was configured with
+ * {@link MessageSerializationTracker#install(org.ros.node.NodeConfiguration)},
+ * the buffers are reused once the messages have been serialized.
+ * <p>
+ * {@link SimulcastOutput}s publish additional JPEG streams. Each frame is
+ * cropped and scaled once per output on the encoding thread before it is
+ * compressed.
  * 
  * @author damonkohler@google.com (Damon Kohler)
  */
-class CompressedImagePublisher implements RawImageListener {
+public class CompressedImagePublisher implements FrameListener {
+
+  static final int MAXIMUM_ENCODING_THREADS = 4;
+  static final int MAXIMUM_SIMULCAST_OUTPUTS = 8;
+  // Bit 0 of the output mask of a frame selects the primary stream, bit i + 1
+  // selects simulcast output i.
+  private static final int PRIMARY_OUTPUT = 1;
+  private static final int QUEUE_DEPTH = 2;
+  // Enough for every buffer in a preview buffer ring.
+  private static final int YUV_IMAGE_CACHE_SIZE = 8;
+  private static final RectF FULL_FRAME = new RectF(0, 0, 1, 1);
+  // Published images are serialized quickly, a few messages cover the
+  // outgoing queue.
+  static final int IMAGE_MESSAGE_POOL_CAPACITY = 4;
 
   private final ConnectedNode connectedNode;
   private final Publisher<sensor_msgs.CompressedImage> imagePublisher;
-  private final Publisher<sensor_msgs.CameraInfo> cameraInfoPublisher;
+  private final MessagePool<sensor_msgs.CompressedImage> imageMessagePool;
+  private final CameraInfoPublisher cameraInfoPublisher;
+  private final CaptureTimeMapper captureTimeMapper;
+  private final Rect fullFrame;
+  private final NameResolver resolver;
+  private final BufferOutputStream[] streams;
+  private final Rect[] rects;
+  private final YuvImage[] yuvImages;
+  // Created and released on the worker threads.
+  private final NativeJpegEncoder[] nativeEncoders;
+  private final ScaledFrameBuffers scaledFrames;
+  private final ArrayDeque<EncodedFrame> freeEncodedFrames;
+  private final ImageBufferPool bufferPool;
+  private final ParallelFrameEncoder<EncodedFrame> encoder;
+  private final JpegRateController rateController;
+
+  private volatile PublishMode publishMode = PublishMode.JPEG;
+  private volatile Publisher<sensor_msgs.Image> rawImagePublisher;
+  private volatile MessagePool<sensor_msgs.Image> rawImageMessagePool;
+  // Outputs are only ever appended, so indices in output masks stay valid.
+  private volatile SimulcastOutput[] simulcastOutputs = new SimulcastOutput[0];
+  private volatile int publishWidth;
+  private volatile boolean nativeEncoding;
+  private volatile YuvScaler primaryScaler;
+  private final byte[][] rows;
+  private CameraCalibration calibration;
+  private float cameraInfoRate;
+  private int nextYuvImage;
+  private long droppedFrames;
+
+  private static final class EncodedFrame {
+    private PublishMode publishMode;
+    private ChannelBuffer data;
+    private Time stamp;
+    private int width;
+    private int height;
+    // Set if the primary frame has been scaled down.
+    private YuvScaler primaryScaler;
+    private final ChannelBuffer[] simulcastData = new ChannelBuffer[MAXIMUM_SIMULCAST_OUTPUTS];
+    private final YuvScaler[] simulcastScalers = new YuvScaler[MAXIMUM_SIMULCAST_OUTPUTS];
+  }
+
+  /**
+   * Writes into a buffer that can be swapped for every frame.
+   */
+  private static final class BufferOutputStream extends OutputStream {
+
+    private ChannelBuffer buffer;
+
+    @Override
+    public void write(int b) {
+      buffer.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      buffer.writeBytes(bytes, offset, length);
+    }
+  }
+
+  private final class FrameEncoder implements ParallelFrameEncoder.Encoder<EncodedFrame> {
+    @Override
+    public EncodedFrame encode(byte[] data, int width, int height, Time stamp, int outputs,
+        int worker) {
+      EncodedFrame encodedFrame = newEncodedFrame();
+      encodedFrame.stamp = stamp;
+      encodedFrame.width = width;
+      encodedFrame.height = height;
+      try {
+        if ((outputs & PRIMARY_OUTPUT) != 0) {
+          encodePrimary(data, width, height, worker, encodedFrame);
+        }
+        SimulcastOutput[] simulcastOutputs = CompressedImagePublisher.this.simulcastOutputs;
+        for (int i = 0; i < simulcastOutputs.length; i++) {
+          if ((outputs & (PRIMARY_OUTPUT << (i + 1))) != 0) {
+            encodeSimulcast(simulcastOutputs[i], i, data, width, height, worker,
+                encodedFrame);
+          }
+        }
+      } catch (RuntimeException e) {
+        releaseBuffers(encodedFrame);
+        recycle(encodedFrame);
+        throw e;
+      }
+      return encodedFrame;
+    }
+
+    @Override
+    public void publish(EncodedFrame encodedFrame) {
+      if (encodedFrame.data != null) {
+        publishPrimary(encodedFrame);
+      }
+      SimulcastOutput[] simulcastOutputs = CompressedImagePublisher.this.simulcastOutputs;
+      for (int i = 0; i < simulcastOutputs.length; i++) {
+        if (encodedFrame.simulcastData[i] != null) {
+          publishSimulcast(simulcastOutputs[i], encodedFrame.simulcastData[i],
+              encodedFrame.simulcastScalers[i], encodedFrame);
+        }
+      }
+      recycle(encodedFrame);
+    }
+
+    @Override
+    public void onWorkerStopped(int worker) {
+      if (nativeEncoders[worker] != null) {
+        nativeEncoders[worker].release();
+        nativeEncoders[worker] = null;
+      }
+    }
+  }
+
+  private void encodePrimary(byte[] data, int width, int height, int worker,
+      EncodedFrame encodedFrame) {
+    PublishMode publishMode = this.publishMode;
+    ChannelBuffer buffer = bufferPool.acquire();
+    encodedFrame.publishMode = publishMode;
+    encodedFrame.data = buffer;
+    switch (publishMode) {
+      case JPEG:
+        YuvScaler scaler = getPrimaryScaler(width, height);
+        encodedFrame.primaryScaler = scaler;
+        compressJpeg(data, width, height, scaler, scaledFrames, rateController.getQuality(),
+            buffer, worker);
+        break;
+      case MONO8:
+        buffer.writeBytes(data, 0, width * height);
+        break;
+      case NV21:
+        buffer.writeBytes(data, 0, width * height * 3 / 2);
+        break;
+      case YUV422:
+        convertToYuv422(data, width, height, buffer, worker);
+        break;
+    }
+  }
+
+  /**
+   * @return the scaler for primary frames of the given size, or {@code null}
+   *         if they are published at full resolution
+   */
+  private YuvScaler getPrimaryScaler(int width, int height) {
+    int publishWidth = this.publishWidth;
+    if (publishWidth <= 0 || publishWidth >= width) {
+      return null;
+    }
+    YuvScaler scaler = primaryScaler;
+    if (scaler == null || !scaler.hasSourceSize(width, height)
+        || scaler.getWidth() != Math.max(2, publishWidth & ~1)) {
+      scaler = new YuvScaler(width, height, FULL_FRAME, publishWidth);
+      primaryScaler = scaler;
+    }
+    return scaler;
+  }
+
+  private void encodeSimulcast(SimulcastOutput output, int index, byte[] data, int width,
+      int height, int worker, EncodedFrame encodedFrame) {
+    YuvScaler scaler = output.getScaler(width, height);
+    ChannelBuffer buffer = bufferPool.acquire();
+    encodedFrame.simulcastData[index] = buffer;
+    encodedFrame.simulcastScalers[index] = scaler;
+    compressJpeg(data, width, height, scaler, output.getScaledFrameBuffers(),
+        output.getRateController().getQuality(), buffer, worker);
+  }
+
+  private void publishPrimary(EncodedFrame encodedFrame) {
+    String frameId = "camera";
+
+    if (encodedFrame.publishMode == PublishMode.JPEG) {
+      // Every field is set again, so reused messages need no reset.
+      sensor_msgs.CompressedImage image = imageMessagePool.acquire();
+      image.setFormat("jpeg");
+      image.getHeader().setStamp(encodedFrame.stamp);
+      image.getHeader().setFrameId(frameId);
+      image.setData(encodedFrame.data);
+      bufferPool.lease(image, encodedFrame.data);
+      imageMessagePool.publish(image);
+    } else {
+      sensor_msgs.Image image = rawImageMessagePool.acquire();
+      image.getHeader().setStamp(encodedFrame.stamp);
+      image.getHeader().setFrameId(frameId);
+      image.setWidth(encodedFrame.width);
+      image.setHeight(encodedFrame.height);
+      switch (encodedFrame.publishMode) {
+        case MONO8:
+          image.setEncoding("mono8");
+          image.setStep(encodedFrame.width);
+          break;
+        case NV21:
+          image.setEncoding("nv21");
+          image.setStep(encodedFrame.width);
+          break;
+        case YUV422:
+          image.setEncoding("yuv422");
+          image.setStep(encodedFrame.width * 2);
+          break;
+      }
+      image.setData(encodedFrame.data);
+      bufferPool.lease(image, encodedFrame.data);
+      rawImageMessagePool.publish(image);
+    }
+    rateController.onFramePublished(encodedFrame.data.readableBytes(), System.nanoTime());
+
+    YuvScaler scaler = encodedFrame.primaryScaler;
+    if (scaler != null) {
+      cameraInfoPublisher.publish(encodedFrame.stamp, encodedFrame.width, encodedFrame.height,
+          scaler.getCrop(), scaler.getWidth(), scaler.getHeight());
+    } else {
+      fullFrame.set(0, 0, encodedFrame.width, encodedFrame.height);
+      cameraInfoPublisher.publish(encodedFrame.stamp, encodedFrame.width, encodedFrame.height,
+          fullFrame, encodedFrame.width, encodedFrame.height);
+    }
+  }
+
+  private void publishSimulcast(SimulcastOutput output, ChannelBuffer data, YuvScaler scaler,
+      EncodedFrame encodedFrame) {
+    Time stamp = encodedFrame.stamp;
+    String frameId = "camera";
+
+    sensor_msgs.CompressedImage image = output.getImageMessagePool().acquire();
+    image.setFormat("jpeg");
+    image.getHeader().setStamp(stamp);
+    image.getHeader().setFrameId(frameId);
+    image.setData(data);
+    bufferPool.lease(image, data);
+    output.getImageMessagePool().publish(image);
+    output.getRateController().onFramePublished(data.readableBytes(), System.nanoTime());
 
-  private byte[] rawImageBuffer;
-  private Size rawImageSize;
-  private YuvImage yuvImage;
-  private Rect rect;
-  private ChannelBufferOutputStream stream;
+    output.getCameraInfoPublisher().publish(stamp, encodedFrame.width, encodedFrame.height,
+        scaler.getCrop(), scaler.getWidth(), scaler.getHeight());
+  }
 
   public CompressedImagePublisher(ConnectedNode connectedNode) {
     this.connectedNode = connectedNode;
-    NameResolver resolver = connectedNode.getResolver().newChild("camera");
+    resolver = connectedNode.getResolver().newChild("camera");
     imagePublisher =
         connectedNode.newPublisher(resolver.resolve("image/compressed"),
             sensor_msgs.CompressedImage._TYPE);
     cameraInfoPublisher =
-        connectedNode.newPublisher(resolver.resolve("camera_info"), sensor_msgs.CameraInfo._TYPE);
-    stream = new ChannelBufferOutputStream(MessageBuffers.dynamicBuffer());
+        new CameraInfoPublisher(connectedNode, resolver.resolve("camera_info"), "camera");
+    captureTimeMapper = new CaptureTimeMapper(connectedNode);
+    fullFrame = new Rect();
+    int threads =
+        Math.min(Runtime.getRuntime().availableProcessors(), MAXIMUM_ENCODING_THREADS);
+    streams = new BufferOutputStream[threads];
+    rects = new Rect[threads];
+    rows = new byte[threads][];
+    freeEncodedFrames = new ArrayDeque<EncodedFrame>(threads);
+    for (int i = 0; i < threads; i++) {
+      streams[i] = new BufferOutputStream();
+      rects[i] = new Rect();
+      freeEncodedFrames.add(new EncodedFrame());
+    }
+    yuvImages = new YuvImage[YUV_IMAGE_CACHE_SIZE];
+    nativeEncoders = new NativeJpegEncoder[threads];
+    scaledFrames = new ScaledFrameBuffers();
+    bufferPool = new ImageBufferPool(MessageSerializationTracker.isInstalled(connectedNode));
+    MessageSerializationTracker.getInstance().addListener(sensor_msgs.CompressedImage._TYPE,
+        bufferPool);
+    MessageSerializationTracker.getInstance().addListener(sensor_msgs.Image._TYPE, bufferPool);
+    // Message pools are registered after the buffer pool, so a message is only
+    // reused after the buffer it pointed to has been released.
+    imageMessagePool = new MessagePool<sensor_msgs.CompressedImage>(connectedNode,
+        imagePublisher, IMAGE_MESSAGE_POOL_CAPACITY);
+    rateController = new JpegRateController();
+    encoder = new ParallelFrameEncoder<EncodedFrame>(new FrameEncoder(), threads, QUEUE_DEPTH);
+  }
+
+  /**
+   * Compresses an NV21 frame, cropped and scaled by the scaler unless it is
+   * {@code null}, with the native encoder if enabled, otherwise with
+   * {@link YuvImage}.
+   */
+  private void compressJpeg(byte[] data, int width, int height, YuvScaler scaler,
+      ScaledFrameBuffers scaledFrames, int quality, ChannelBuffer buffer, int worker) {
+    Rect rect = rects[worker];
+    NativeJpegEncoder nativeEncoder = getNativeEncoder(worker);
+    if (nativeEncoder != null) {
+      // Scaling is done by the native encoder in the same pass.
+      boolean encoded;
+      if (scaler != null) {
+        encoded = nativeEncoder.encode(data, width, height, scaler.getCrop(), scaler.getWidth(),
+            scaler.getHeight(), quality, buffer);
+      } else {
+        rect.set(0, 0, width, height);
+        encoded = ((width | height) & 1) == 0
+            && nativeEncoder.encode(data, width, height, rect, width, height, quality, buffer);
+      }
+      if (encoded) {
+        return;
+      }
+    }
+    if (scaler == null) {
+      rect.set(0, 0, width, height);
+      compressJpeg(getYuvImage(data, width, height), rect, quality, buffer, worker);
+    } else if (scaler.isScaling()) {
+      rect.set(0, 0, scaler.getWidth(), scaler.getHeight());
+      compressJpeg(scaledFrames.scale(data, scaler, worker), rect, quality, buffer, worker);
+    } else {
+      // A plain crop is left to the encoder.
+      compressJpeg(getYuvImage(data, width, height), scaler.getCrop(), quality, buffer, worker);
+    }
+  }
+
+  /**
+   * @return the native encoder of the worker, or {@code null} if native
+   *         encoding is disabled
+   */
+  private NativeJpegEncoder getNativeEncoder(int worker) {
+    NativeJpegEncoder nativeEncoder = nativeEncoders[worker];
+    if (!nativeEncoding) {
+      if (nativeEncoder != null) {
+        nativeEncoder.release();
+        nativeEncoders[worker] = null;
+      }
+      return null;
+    }
+    if (nativeEncoder == null) {
+      nativeEncoder = new NativeJpegEncoder();
+      nativeEncoders[worker] = nativeEncoder;
+    }
+    return nativeEncoder;
+  }
+
+  private void compressJpeg(YuvImage yuvImage, Rect rect, int quality, ChannelBuffer buffer,
+      int worker) {
+    BufferOutputStream stream = streams[worker];
+    stream.buffer = buffer;
+    try {
+      Preconditions.checkState(yuvImage.compressToJpeg(rect, quality, stream));
+    } finally {
+      stream.buffer = null;
+    }
+  }
+
+  /**
+   * Converts an NV21 frame to UYVY one row at a time.
+   */
+  private void convertToYuv422(byte[] data, int width, int height, ChannelBuffer buffer,
+      int worker) {
+    byte[] row = rows[worker];
+    if (row == null || row.length != width * 2) {
+      row = new byte[width * 2];
+      rows[worker] = row;
+    }
+    int chromaOffset = width * height;
+    for (int y = 0; y < height; y++) {
+      int luma = y * width;
+      int chroma = chromaOffset + (y / 2) * width;
+      for (int x = 0; x < width; x += 2) {
+        int i = x * 2;
+        row[i] = data[chroma + x + 1];
+        row[i + 1] = data[luma + x];
+        row[i + 2] = data[chroma + x];
+        row[i + 3] = data[luma + x + 1];
+      }
+      buffer.writeBytes(row);
+    }
+  }
+
+  /**
+   * @return a cached image wrapping the frame buffer
+   */
+  private synchronized YuvImage getYuvImage(byte[] data, int width, int height) {
+    for (YuvImage yuvImage : yuvImages) {
+      if (yuvImage != null && yuvImage.getYuvData() == data && yuvImage.getWidth() == width
+          && yuvImage.getHeight() == height) {
+        return yuvImage;
+      }
+    }
+    YuvImage yuvImage = new YuvImage(data, ImageFormat.NV21, width, height, null);
+    yuvImages[nextYuvImage] = yuvImage;
+    nextYuvImage = (nextYuvImage + 1) % YUV_IMAGE_CACHE_SIZE;
+    return yuvImage;
+  }
+
+  private synchronized EncodedFrame newEncodedFrame() {
+    EncodedFrame encodedFrame = freeEncodedFrames.pollFirst();
+    return encodedFrame != null ? encodedFrame : new EncodedFrame();
+  }
+
+  private synchronized void recycle(EncodedFrame encodedFrame) {
+    encodedFrame.data = null;
+    encodedFrame.stamp = null;
+    encodedFrame.primaryScaler = null;
+    for (int i = 0; i < MAXIMUM_SIMULCAST_OUTPUTS; i++) {
+      encodedFrame.simulcastData[i] = null;
+      encodedFrame.simulcastScalers[i] = null;
+    }
+    freeEncodedFrames.addLast(encodedFrame);
+  }
+
+  private void releaseBuffers(EncodedFrame encodedFrame) {
+    if (encodedFrame.data != null) {
+      bufferPool.release(encodedFrame.data);
+    }
+    for (int i = 0; i < MAXIMUM_SIMULCAST_OUTPUTS; i++) {
+      if (encodedFrame.simulcastData[i] != null) {
+        bufferPool.release(encodedFrame.simulcastData[i]);
+      }
+    }
   }
 
   @Override
-  public void onNewRawImage(byte[] data, Size size) {
+  public void onNewFrame(byte[] data, int width, int height, int format, long timestampNanos,
+      FrameSource source) {
     Preconditions.checkNotNull(data);
-    Preconditions.checkNotNull(size);
-    if (data != rawImageBuffer || !size.equals(rawImageSize)) {
-      rawImageBuffer = data;
-      rawImageSize = size;
-      yuvImage = new YuvImage(rawImageBuffer, ImageFormat.NV21, size.width, size.height, null);
-      rect = new Rect(0, 0, size.width, size.height);
+    Preconditions.checkArgument(format == ImageFormat.NV21, "Only NV21 frames are supported.");
+    SimulcastOutput[] simulcastOutputs = this.simulcastOutputs;
+    int outputs = 0;
+    Publisher<?> publisher =
+        publishMode == PublishMode.JPEG ? imagePublisher : rawImagePublisher;
+    if (publisher.hasSubscribers() && rateController.acceptFrame(timestampNanos)) {
+      outputs |= PRIMARY_OUTPUT;
+    }
+    for (int i = 0; i < simulcastOutputs.length; i++) {
+      if (simulcastOutputs[i].acceptFrame(timestampNanos)) {
+        outputs |= PRIMARY_OUTPUT << (i + 1);
+      }
+    }
+    if (outputs == 0) {
+      source.releaseFrame(data);
+      return;
+    }
+    long droppedFrames = encoder.getDroppedFrameCount();
+    if (droppedFrames != this.droppedFrames) {
+      int frames = (int) (droppedFrames - this.droppedFrames);
+      rateController.onFramesDropped(frames);
+      for (SimulcastOutput simulcastOutput : simulcastOutputs) {
+        simulcastOutput.getRateController().onFramesDropped(frames);
+      }
+      this.droppedFrames = droppedFrames;
     }
+    // Frames are stamped when they are captured, not when they are published.
+    encoder.submit(data, width, height, captureTimeMapper.toRosTime(timestampNanos), outputs,
+        source);
+  }
 
-    Time currentTime = connectedNode.getCurrentTime();
-    String frameId = "camera";
+  /**
+   * @see RosCameraPreviewView#setPublishMode(PublishMode)
+   */
+  public void setPublishMode(PublishMode publishMode) {
+    Preconditions.checkNotNull(publishMode);
+    if (publishMode != PublishMode.JPEG) {
+      synchronized (this) {
+        if (rawImagePublisher == null) {
+          Publisher<sensor_msgs.Image> rawImagePublisher =
+              connectedNode.newPublisher(resolver.resolve("image_raw"), sensor_msgs.Image._TYPE);
+          rawImageMessagePool = new MessagePool<sensor_msgs.Image>(connectedNode,
+              rawImagePublisher, IMAGE_MESSAGE_POOL_CAPACITY);
+          this.rawImagePublisher = rawImagePublisher;
+        }
+      }
+    }
+    this.publishMode = publishMode;
+  }
 
-    sensor_msgs.CompressedImage image = imagePublisher.newMessage();
-    image.setFormat("jpeg");
-    image.getHeader().setStamp(currentTime);
-    image.getHeader().setFrameId(frameId);
+  /**
+   * @see RosCameraPreviewView#setCalibration(CameraCalibration)
+   */
+  public synchronized void setCalibration(CameraCalibration calibration) {
+    cameraInfoPublisher.setCalibration(calibration);
+    for (SimulcastOutput simulcastOutput : simulcastOutputs) {
+      simulcastOutput.getCameraInfoPublisher().setCalibration(calibration);
+    }
+    this.calibration = calibration;
+  }
+
+  /**
+   * @see RosCameraPreviewView#setCameraInfoRate(float)
+   */
+  public synchronized void setCameraInfoRate(float rate) {
+    cameraInfoPublisher.setMaximumRate(rate);
+    for (SimulcastOutput simulcastOutput : simulcastOutputs) {
+      simulcastOutput.getCameraInfoPublisher().setMaximumRate(rate);
+    }
+    cameraInfoRate = rate;
+  }
+
+  /**
+   * Starts publishing the output.
+   */
+  public synchronized void addSimulcastOutput(SimulcastOutput simulcastOutput) {
+    Preconditions.checkState(simulcastOutputs.length < MAXIMUM_SIMULCAST_OUTPUTS,
+        "Too many simulcast outputs.");
+    simulcastOutput.start(connectedNode, resolver);
+    simulcastOutput.getCameraInfoPublisher().setCalibration(calibration);
+    simulcastOutput.getCameraInfoPublisher().setMaximumRate(cameraInfoRate);
+    SimulcastOutput[] simulcastOutputs = new SimulcastOutput[this.simulcastOutputs.length + 1];
+    System.arraycopy(this.simulcastOutputs, 0, simulcastOutputs, 0, simulcastOutputs.length - 1);
+    simulcastOutputs[simulcastOutputs.length - 1] = simulcastOutput;
+    this.simulcastOutputs = simulcastOutputs;
+  }
+
+  /**
+   * Scales JPEG frames of the primary stream down to at most the given width,
+   * or publishes them at full resolution with 0, the default. Raw frames are
+   * always published at full resolution.
+   */
+  public void setPublishWidth(int maximumWidth) {
+    Preconditions.checkArgument(maximumWidth >= 0);
+    publishWidth = maximumWidth;
+  }
+
+  /**
+   * @see RosCameraPreviewView#setNativeEncoding(boolean)
+   */
+  public void setNativeEncoding(boolean nativeEncoding) {
+    this.nativeEncoding = nativeEncoding && NativeJpegEncoder.isAvailable();
+  }
+
+  /**
+   * @see RosCameraPreviewView#setTargetBitrate(int)
+   */
+  public void setTargetBitrate(int bitsPerSecond) {
+    rateController.setTargetBitrate(bitsPerSecond);
+  }
 
-    Preconditions.checkState(yuvImage.compressToJpeg(rect, 20, stream));
-    image.setData(stream.buffer().copy());
-    stream.buffer().clear();
+  /**
+   * @see RosCameraPreviewView#setMaximumFrameRate(float)
+   */
+  public void setMaximumFrameRate(float frameRate) {
+    rateController.setMaximumFrameRate(frameRate);
+  }
 
-    imagePublisher.publish(image);
+  /**
+   * @return the number of frames dropped because encoding fell behind
+   */
+  public long getDroppedFrameCount() {
+    return encoder.getDroppedFrameCount();
+  }
 
-    sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
-    cameraInfo.getHeader().setStamp(currentTime);
-    cameraInfo.getHeader().setFrameId(frameId);
+  /**
+   * @return the number of image buffers allocated so far
+   */
+  public long getAllocatedBufferCount() {
+    return bufferPool.getAllocatedBufferCount();
+  }
 
-    cameraInfo.setWidth(size.width);
-    cameraInfo.setHeight(size.height);
-    cameraInfoPublisher.publish(cameraInfo);
+  public void shutdown() {
+    encoder.shutdown();
+    cameraInfoPublisher.shutdown();
+    imageMessagePool.shutdown();
+    if (rawImageMessagePool != null) {
+      rawImageMessagePool.shutdown();
+    }
+    for (SimulcastOutput simulcastOutput : simulcastOutputs) {
+      simulcastOutput.getCameraInfoPublisher().shutdown();
+      simulcastOutput.getImageMessagePool().shutdown();
+    }
+    MessageSerializationTracker.getInstance().removeListener(sensor_msgs.CompressedImage._TYPE,
+        bufferPool);
+    MessageSerializationTracker.getInstance().removeListener(sensor_msgs.Image._TYPE, bufferPool);
   }
-}
\ No newline at end of file
+}
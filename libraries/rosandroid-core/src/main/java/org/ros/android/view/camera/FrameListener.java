@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+/**
+ * Receives frames from a {@link FrameSource}.
+ */
+public interface FrameListener {
+
+  /**
+   * The listener owns {@code data} until it is passed to
+   * {@link FrameSource#releaseFrame(byte[])}, which may happen after this
+   * method returns.
+   *
+   * @param format
+   *          the {@link android.graphics.ImageFormat} of the frame, e.g.
+   *          {@link android.graphics.ImageFormat#NV21}
+   * @param timestampNanos
+   *          the capture time of the frame on the {@link System#nanoTime()}
+   *          clock
+   */
+  void onNewFrame(byte[] data, int width, int height, int format, long timestampNanos,
+      FrameSource source);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+/**
+ * Delivers frames to a {@link FrameListener}, e.g. preview frames of the
+ * device camera or {@link SyntheticFrameSource} frames for benchmarks.
+ * <p>
+ * Frame buffers are owned by the source. A buffer handed to the listener
+ * stays with the listener until it is returned with {@link #releaseFrame(byte[])}.
+ */
+public interface FrameSource {
+
+  /**
+   * @param frameListener
+   *          the listener that receives all further frames, or {@code null}
+   */
+  void setFrameListener(FrameListener frameListener);
+
+  /**
+   * Makes a frame buffer available to the source again. Must be called exactly
+   * once for every frame passed to the listener, from any thread. The buffer
+   * must not be used afterwards.
+   */
+  void releaseFrame(byte[] data);
+}
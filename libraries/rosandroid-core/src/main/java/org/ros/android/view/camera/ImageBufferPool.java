@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.android.MessageSerializationTracker;
+
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Reuses the buffers that hold the image data of published messages.
+ * <p>
+ * A buffer is leased together with the message it is published in and comes
+ * back to the pool once the {@link MessageSerializationTracker} reports the
+ * message as serialized. Only the most recent {@link #MAXIMUM_LEASES} leases
+ * are remembered, buffers of messages that are never serialized are left to
+ * the garbage collector. Without a tracker nothing is recycled and every frame
+ * gets a new buffer.
+ * <p>
+ * New buffers are sized after the recently published images and grow on
+ * demand. Pooled buffers that have become much larger than recent images are
+ * dropped.
+ */
+class ImageBufferPool implements MessageSerializationTracker.Listener {
+
+  private static final int MAXIMUM_FREE_BUFFERS = 8;
+  private static final int MAXIMUM_LEASES = 16;
+  private static final int INITIAL_ESTIMATED_SIZE = 64 * 1024;
+  private static final int OVERSIZED_FACTOR = 4;
+
+  private final boolean recycling;
+  private final ArrayDeque<ChannelBuffer> freeBuffers;
+  private final Object[] leasedMessages;
+  private final ChannelBuffer[] leasedBuffers;
+
+  private int nextLease;
+  private int estimatedSize;
+  private long allocatedBuffers;
+
+  /**
+   * @param recycling
+   *          {@code true} if this pool is registered with the
+   *          {@link MessageSerializationTracker} and buffers should be
+   *          recycled
+   */
+  ImageBufferPool(boolean recycling) {
+    this.recycling = recycling;
+    freeBuffers = new ArrayDeque<ChannelBuffer>(MAXIMUM_FREE_BUFFERS);
+    leasedMessages = new Object[MAXIMUM_LEASES];
+    leasedBuffers = new ChannelBuffer[MAXIMUM_LEASES];
+    estimatedSize = INITIAL_ESTIMATED_SIZE;
+  }
+
+  /**
+   * @return an empty buffer that grows as data is written to it
+   */
+  synchronized ChannelBuffer acquire() {
+    ChannelBuffer buffer = freeBuffers.pollLast();
+    while (buffer != null && buffer.capacity() > estimatedSize * OVERSIZED_FACTOR) {
+      buffer = freeBuffers.pollLast();
+    }
+    if (buffer == null) {
+      allocatedBuffers++;
+      return ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN,
+          estimatedSize + estimatedSize / 4);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer that never made it into a message.
+   */
+  synchronized void release(ChannelBuffer buffer) {
+    if (freeBuffers.size() < MAXIMUM_FREE_BUFFERS) {
+      freeBuffers.addLast(buffer);
+    }
+  }
+
+  /**
+   * Must be called before the message is published.
+   */
+  synchronized void lease(Object message, ChannelBuffer buffer) {
+    // Follows growing images at once and shrinking ones slowly.
+    estimatedSize = Math.max(buffer.readableBytes(), estimatedSize - estimatedSize / 16);
+    if (!recycling) {
+      return;
+    }
+    leasedMessages[nextLease] = message;
+    leasedBuffers[nextLease] = buffer;
+    nextLease = (nextLease + 1) % MAXIMUM_LEASES;
+  }
+
+  @Override
+  public synchronized void onMessageSerialized(Object message) {
+    for (int i = 0; i < MAXIMUM_LEASES; i++) {
+      if (leasedMessages[i] == message) {
+        ChannelBuffer buffer = leasedBuffers[i];
+        leasedMessages[i] = null;
+        leasedBuffers[i] = null;
+        release(buffer);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the number of buffers allocated so far, which stops growing in
+   *         steady state if buffers are recycled
+   */
+  synchronized long getAllocatedBufferCount() {
+    return allocatedBuffers;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.YuvImage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.android.NativeJpegEncoder;
+
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Compares the compression time of {@link YuvImage} and the
+ * {@link NativeJpegEncoder} on NV21 frames from
+ * {@link SyntheticFrameSource#fillFrame(byte[], int, int, long)}.
+ * <p>
+ * Frames that are scaled down are scaled in Java before they are compressed
+ * with {@link YuvImage}, the way {@link CompressedImagePublisher} does it, so
+ * the scaling time is included. Run it on the target device, compression
+ * times depend heavily on the CPU.
+ */
+public class JpegEncodeBenchmark {
+
+  private static final RectF FULL_FRAME = new RectF(0, 0, 1, 1);
+
+  private final int width;
+  private final int height;
+  private final byte[][] frames;
+
+  private static final class Measurement {
+    private long nanos;
+    private long bytes;
+  }
+
+  public static final class Result {
+
+    private final int frames;
+    private final long yuvImageNanos;
+    private final long yuvImageBytes;
+    private final long nativeNanos;
+    private final long nativeBytes;
+
+    private Result(int frames, long yuvImageNanos, long yuvImageBytes, long nativeNanos,
+        long nativeBytes) {
+      this.frames = frames;
+      this.yuvImageNanos = yuvImageNanos;
+      this.yuvImageBytes = yuvImageBytes;
+      this.nativeNanos = nativeNanos;
+      this.nativeBytes = nativeBytes;
+    }
+
+    public int getFrameCount() {
+      return frames;
+    }
+
+    public float getYuvImageMillisPerFrame() {
+      return yuvImageNanos / 1e6f / frames;
+    }
+
+    public float getYuvImageBytesPerFrame() {
+      return (float) yuvImageBytes / frames;
+    }
+
+    /**
+     * @return the mean native compression time, or -1 if the native encoder
+     *         is not available
+     */
+    public float getNativeMillisPerFrame() {
+      return nativeNanos < 0 ? -1 : nativeNanos / 1e6f / frames;
+    }
+
+    /**
+     * @return the mean size of a natively compressed frame, or -1 if the
+     *         native encoder is not available
+     */
+    public float getNativeBytesPerFrame() {
+      return nativeNanos < 0 ? -1 : (float) nativeBytes / frames;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "%d frames, YuvImage %.2f ms %.0f bytes, libjpeg-turbo %.2f ms %.0f bytes", frames,
+          getYuvImageMillisPerFrame(), getYuvImageBytesPerFrame(), getNativeMillisPerFrame(),
+          getNativeBytesPerFrame());
+    }
+  }
+
+  /**
+   * @param frameCount
+   *          the number of different synthetic frames to compress
+   */
+  public JpegEncodeBenchmark(int width, int height, int frameCount) {
+    Preconditions.checkArgument(width >= 2 && height >= 2 && ((width | height) & 1) == 0);
+    Preconditions.checkArgument(frameCount > 0);
+    this.width = width;
+    this.height = height;
+    frames = new byte[frameCount][];
+    for (int i = 0; i < frameCount; i++) {
+      frames[i] = new byte[width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8];
+      SyntheticFrameSource.fillFrame(frames[i], width, height, i);
+    }
+  }
+
+  /**
+   * Compresses every frame {@code iterations} times with both backends. The
+   * output buffer is reused, so only scaling and compression are measured.
+   *
+   * @param maximumWidth
+   *          frames wider than this are scaled down, 0 to keep the full
+   *          resolution
+   */
+  public Result run(int iterations, int quality, int maximumWidth) {
+    Preconditions.checkArgument(iterations > 0);
+    YuvScaler scaler = new YuvScaler(width, height, FULL_FRAME, maximumWidth);
+    ChannelBuffer buffer =
+        ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, scaler.getScaledSize());
+    Measurement yuvImage = runYuvImage(iterations, quality, scaler, buffer);
+    Measurement nativeEncoder = new Measurement();
+    nativeEncoder.nanos = -1;
+    if (NativeJpegEncoder.isAvailable()) {
+      nativeEncoder = runNative(iterations, quality, scaler, buffer);
+    }
+    return new Result(frames.length * iterations, yuvImage.nanos, yuvImage.bytes,
+        nativeEncoder.nanos, nativeEncoder.bytes);
+  }
+
+  private Measurement runYuvImage(int iterations, int quality, YuvScaler scaler,
+      ChannelBuffer buffer) {
+    ScaledFrameBuffers scaledFrames = new ScaledFrameBuffers();
+    ChannelBufferOutputStream stream = new ChannelBufferOutputStream(buffer);
+    Rect rect = new Rect(0, 0, scaler.getWidth(), scaler.getHeight());
+    Measurement measurement = new Measurement();
+    for (int i = 0; i < iterations; i++) {
+      for (byte[] frame : frames) {
+        buffer.clear();
+        long startNanos = System.nanoTime();
+        YuvImage image;
+        if (scaler.isScaling()) {
+          image = scaledFrames.scale(frame, scaler, 0);
+        } else {
+          image = new YuvImage(frame, ImageFormat.NV21, width, height, null);
+        }
+        Preconditions.checkState(image.compressToJpeg(rect, quality, stream));
+        measurement.nanos += System.nanoTime() - startNanos;
+        measurement.bytes += buffer.readableBytes();
+      }
+    }
+    return measurement;
+  }
+
+  private Measurement runNative(int iterations, int quality, YuvScaler scaler,
+      ChannelBuffer buffer) {
+    NativeJpegEncoder encoder = new NativeJpegEncoder();
+    Measurement measurement = new Measurement();
+    try {
+      for (int i = 0; i < iterations; i++) {
+        for (byte[] frame : frames) {
+          buffer.clear();
+          long startNanos = System.nanoTime();
+          boolean encoded = encoder.encode(frame, width, height, scaler.getCrop(),
+              scaler.getWidth(), scaler.getHeight(), quality, buffer);
+          measurement.nanos += System.nanoTime() - startNanos;
+          Preconditions.checkState(encoded, "Failed to compress a frame.");
+          measurement.bytes += buffer.readableBytes();
+        }
+      }
+    } finally {
+      encoder.release();
+    }
+    return measurement;
+  }
+}
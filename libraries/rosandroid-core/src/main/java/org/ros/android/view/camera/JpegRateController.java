@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Chooses the JPEG quality and the frame rate of published preview frames.
+ * <p>
+ * Once per {@link #WINDOW_NANOS} the published bitrate is compared to the
+ * target bitrate. Above the target, quality is lowered first and the frame
+ * rate only once quality is at its minimum. Below the target, the frame rate
+ * is raised first up to the maximum frame rate, then quality. Without a target
+ * bitrate the quality stays fixed.
+ * <p>
+ * Frames dropped because encoding fell behind lower the frame rate
+ * regardless of the bitrate; it recovers gradually once the backlog is gone.
+ */
+class JpegRateController {
+
+  static final int MINIMUM_QUALITY = 10;
+  static final int MAXIMUM_QUALITY = 90;
+  static final int DEFAULT_QUALITY = 20;
+  static final float MINIMUM_FRAME_RATE = 1;
+
+  private static final long WINDOW_NANOS = 1000000000L;
+  private static final float BITRATE_TOLERANCE = 0.1f;
+  private static final int QUALITY_STEP = 5;
+  private static final float BACKLOG_FRAME_RATE_FACTOR = 0.75f;
+  private static final float FRAME_RATE_RECOVERY_FACTOR = 1.1f;
+  // Frames may arrive slightly early, don't skip every other frame because of jitter.
+  private static final float FRAME_INTERVAL_TOLERANCE = 0.8f;
+
+  private int targetBitsPerSecond;
+  private int fixedQuality;
+  private float maximumFrameRate;
+
+  private int quality;
+  private float frameRate;
+  private long lastAcceptedNanos;
+
+  private long windowStartNanos;
+  private long windowBytes;
+  private int windowFrames;
+  private int windowDroppedFrames;
+
+  JpegRateController() {
+    fixedQuality = DEFAULT_QUALITY;
+    quality = DEFAULT_QUALITY;
+    maximumFrameRate = Float.MAX_VALUE;
+    frameRate = Float.MAX_VALUE;
+    windowStartNanos = System.nanoTime();
+  }
+
+  /**
+   * @param targetBitsPerSecond
+   *          the bitrate to aim for, or 0 to publish at a fixed quality
+   */
+  synchronized void setTargetBitrate(int targetBitsPerSecond) {
+    Preconditions.checkArgument(targetBitsPerSecond >= 0);
+    this.targetBitsPerSecond = targetBitsPerSecond;
+    if (targetBitsPerSecond == 0) {
+      quality = fixedQuality;
+    }
+  }
+
+  /**
+   * @param quality
+   *          the quality used without a target bitrate, which is also the
+   *          starting point when a target is set
+   */
+  synchronized void setQuality(int quality) {
+    Preconditions.checkArgument(quality >= MINIMUM_QUALITY && quality <= MAXIMUM_QUALITY);
+    fixedQuality = quality;
+    this.quality = quality;
+  }
+
+  /**
+   * @param maximumFrameRate
+   *          the maximum number of frames published per second, or
+   *          {@link Float#MAX_VALUE} to publish every captured frame
+   */
+  synchronized void setMaximumFrameRate(float maximumFrameRate) {
+    Preconditions.checkArgument(maximumFrameRate >= MINIMUM_FRAME_RATE);
+    this.maximumFrameRate = maximumFrameRate;
+    frameRate = Math.min(frameRate, maximumFrameRate);
+  }
+
+  /**
+   * @return {@code true} if a frame captured now should be encoded
+   */
+  synchronized boolean acceptFrame(long nowNanos) {
+    if (frameRate < Float.MAX_VALUE
+        && nowNanos - lastAcceptedNanos < FRAME_INTERVAL_TOLERANCE * 1e9f / frameRate) {
+      return false;
+    }
+    lastAcceptedNanos = nowNanos;
+    return true;
+  }
+
+  synchronized int getQuality() {
+    return quality;
+  }
+
+  synchronized float getFrameRate() {
+    return frameRate;
+  }
+
+  synchronized void onFramesDropped(int frames) {
+    windowDroppedFrames += frames;
+  }
+
+  synchronized void onFramePublished(int bytes, long nowNanos) {
+    windowBytes += bytes;
+    windowFrames++;
+    long elapsedNanos = nowNanos - windowStartNanos;
+    if (elapsedNanos < WINDOW_NANOS) {
+      return;
+    }
+    float seconds = elapsedNanos / 1e9f;
+    float publishedFrameRate = windowFrames / seconds;
+    if (windowDroppedFrames > 0) {
+      frameRate = Math.max(MINIMUM_FRAME_RATE, publishedFrameRate * BACKLOG_FRAME_RATE_FACTOR);
+    } else if (targetBitsPerSecond > 0) {
+      adjustToTargetBitrate(windowBytes * 8 / seconds, publishedFrameRate);
+    } else if (frameRate < maximumFrameRate) {
+      recoverFrameRate();
+    }
+    windowStartNanos = nowNanos;
+    windowBytes = 0;
+    windowFrames = 0;
+    windowDroppedFrames = 0;
+  }
+
+  private void adjustToTargetBitrate(float bitsPerSecond, float publishedFrameRate) {
+    if (bitsPerSecond > targetBitsPerSecond * (1 + BITRATE_TOLERANCE)) {
+      if (quality > MINIMUM_QUALITY) {
+        quality = Math.max(MINIMUM_QUALITY, quality - QUALITY_STEP);
+      } else {
+        float bitsPerFrame = bitsPerSecond / publishedFrameRate;
+        frameRate = Math.max(MINIMUM_FRAME_RATE, targetBitsPerSecond / bitsPerFrame);
+      }
+    } else if (bitsPerSecond < targetBitsPerSecond * (1 - BITRATE_TOLERANCE)) {
+      // The frame rate is only worth raising if it is what limits the published frames.
+      if (frameRate < maximumFrameRate
+          && publishedFrameRate >= frameRate * FRAME_INTERVAL_TOLERANCE) {
+        recoverFrameRate();
+      } else if (quality < MAXIMUM_QUALITY) {
+        quality = Math.min(MAXIMUM_QUALITY, quality + QUALITY_STEP);
+      }
+    }
+  }
+
+  private void recoverFrameRate() {
+    frameRate = frameRate * FRAME_RATE_RECOVERY_FACTOR;
+    if (frameRate >= maximumFrameRate) {
+      frameRate = maximumFrameRate;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.util.Log;
+import org.ros.message.Time;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes frames on several worker threads and publishes the results in the
+ * order the frames were captured.
+ * <p>
+ * Submitted frames wait in a bounded queue. When the queue is full the oldest
+ * waiting frame is dropped and released to its source. A worker releases a
+ * frame to its source as soon as it has been encoded and then waits for the
+ * frames before it to be published, so at most one encoded frame per worker is
+ * held back for reordering.
+ *
+ * @param <R>
+ *          the type of an encoded frame
+ */
+class ParallelFrameEncoder<R> {
+
+  private static final String TAG = "ParallelFrameEncoder";
+
+  interface Encoder<R> {
+
+    /**
+     * Called concurrently on the worker threads. Each worker has its own index,
+     * so scratch state can be kept per worker.
+     *
+     * @param outputs
+     *          the outputs the frame was submitted for
+     *
+     * @return the encoded frame, or {@code null} to skip publishing it
+     */
+    R encode(byte[] data, int width, int height, Time stamp, int outputs, int worker);
+
+    /**
+     * Called in capture order, never concurrently.
+     */
+    void publish(R encodedFrame);
+
+    /**
+     * Called on a worker thread when it exits after {@link #shutdown()}, so
+     * scratch state of the worker can be released.
+     */
+    void onWorkerStopped(int worker);
+  }
+
+  private static final class Frame {
+    private byte[] data;
+    private int width;
+    private int height;
+    private Time stamp;
+    private int outputs;
+    private FrameSource source;
+  }
+
+  private final Encoder<R> encoder;
+  private final int queueDepth;
+  private final Thread[] workers;
+  private final AtomicLong droppedFrames;
+
+  // Guards the queue, the free frames and the sequence of dequeued frames.
+  private final Object queueMutex = new Object();
+  private final ArrayDeque<Frame> queue;
+  private final ArrayDeque<Frame> freeFrames;
+  private long nextSequence;
+  private boolean shutdown;
+
+  // Guards the sequence of the next frame to publish.
+  private final Object publishMutex = new Object();
+  private long nextPublishedSequence;
+
+  private final class Worker implements Runnable {
+
+    private final int index;
+
+    private Worker(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Frame frame;
+          long sequence;
+          synchronized (queueMutex) {
+            while (queue.isEmpty() && !shutdown) {
+              queueMutex.wait();
+            }
+            if (shutdown) {
+              return;
+            }
+            frame = queue.pollFirst();
+            sequence = nextSequence++;
+          }
+          R encodedFrame = null;
+          try {
+            encodedFrame = encoder.encode(frame.data, frame.width, frame.height, frame.stamp,
+                frame.outputs, index);
+          } catch (RuntimeException e) {
+            // A broken frame must not stop the worker or hold back later frames.
+            Log.e(TAG, "Failed to encode frame.", e);
+          } finally {
+            frame.source.releaseFrame(frame.data);
+            recycle(frame);
+          }
+          publishInOrder(sequence, encodedFrame);
+        }
+      } catch (InterruptedException e) {
+        // Shutting down.
+      } finally {
+        encoder.onWorkerStopped(index);
+      }
+    }
+  }
+
+  /**
+   * @param threads
+   *          the number of encoding threads
+   * @param queueDepth
+   *          the maximum number of frames waiting to be encoded
+   */
+  ParallelFrameEncoder(Encoder<R> encoder, int threads, int queueDepth) {
+    Preconditions.checkArgument(threads > 0);
+    Preconditions.checkArgument(queueDepth > 0);
+    this.encoder = encoder;
+    this.queueDepth = queueDepth;
+    droppedFrames = new AtomicLong();
+    queue = new ArrayDeque<Frame>(queueDepth);
+    freeFrames = new ArrayDeque<Frame>(queueDepth + threads);
+    for (int i = 0; i < queueDepth + threads; i++) {
+      freeFrames.add(new Frame());
+    }
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread(new Worker(i), "ParallelFrameEncoder-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Queues a frame for encoding. The frame is released to its source once it
+   * has been encoded or dropped.
+   *
+   * @param outputs
+   *          passed on to the encoder, e.g. a bit mask of the outputs to
+   *          encode the frame for
+   */
+  void submit(byte[] data, int width, int height, Time stamp, int outputs,
+      FrameSource source) {
+    byte[] droppedData = null;
+    FrameSource droppedSource = null;
+    synchronized (queueMutex) {
+      if (!shutdown) {
+        Frame frame;
+        if (queue.size() == queueDepth) {
+          // The dropped frame makes room for the new one.
+          frame = queue.pollFirst();
+          droppedData = frame.data;
+          droppedSource = frame.source;
+          droppedFrames.incrementAndGet();
+        } else {
+          frame = freeFrames.pollFirst();
+        }
+        frame.data = data;
+        frame.width = width;
+        frame.height = height;
+        frame.stamp = stamp;
+        frame.outputs = outputs;
+        frame.source = source;
+        queue.addLast(frame);
+        queueMutex.notify();
+        data = null;
+      }
+    }
+    // Frames are released outside of the queue mutex since releasing calls into
+    // the frame source.
+    if (data != null) {
+      source.releaseFrame(data);
+    }
+    if (droppedData != null) {
+      droppedSource.releaseFrame(droppedData);
+    }
+  }
+
+  private void recycle(Frame frame) {
+    synchronized (queueMutex) {
+      frame.data = null;
+      frame.stamp = null;
+      frame.source = null;
+      freeFrames.addLast(frame);
+    }
+  }
+
+  private void publishInOrder(long sequence, R encodedFrame) throws InterruptedException {
+    synchronized (publishMutex) {
+      while (nextPublishedSequence != sequence) {
+        publishMutex.wait();
+      }
+      try {
+        if (encodedFrame != null) {
+          encoder.publish(encodedFrame);
+        }
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Failed to publish frame.", e);
+      } finally {
+        nextPublishedSequence++;
+        publishMutex.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return the number of frames dropped because the queue was full
+   */
+  long getDroppedFrameCount() {
+    return droppedFrames.get();
+  }
+
+  /**
+   * @return the number of frames waiting to be encoded
+   */
+  int getQueuedFrameCount() {
+    synchronized (queueMutex) {
+      return queue.size();
+    }
+  }
+
+  /**
+   * Stops the workers and releases all queued frames.
+   */
+  void shutdown() {
+    ArrayDeque<Frame> pending;
+    synchronized (queueMutex) {
+      shutdown = true;
+      pending = new ArrayDeque<Frame>(queue);
+      queue.clear();
+      queueMutex.notifyAll();
+    }
+    for (Frame frame : pending) {
+      frame.source.releaseFrame(frame.data);
+    }
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+/**
+ * How preview frames are published.
+ */
+public enum PublishMode {
+
+  /**
+   * sensor_msgs/CompressedImage with JPEG data on {@code camera/image/compressed}.
+   */
+  JPEG,
+
+  /**
+   * sensor_msgs/Image with the luminance plane of the preview frame as
+   * {@code mono8} on {@code camera/image_raw}.
+   */
+  MONO8,
+
+  /**
+   * sensor_msgs/Image with the unmodified preview frame as {@code nv21} on
+   * {@code camera/image_raw}.
+   */
+  NV21,
+
+  /**
+   * sensor_msgs/Image converted to {@code yuv422} (UYVY) on
+   * {@code camera/image_raw}.
+   */
+  YUV422
+}
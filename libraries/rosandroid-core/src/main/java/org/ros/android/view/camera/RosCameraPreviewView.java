@@ -16,13 +16,20 @@
 
 package org.ros.android.view.camera;
 
+import com.google.common.base.Preconditions;
+
 import android.content.Context;
+import android.graphics.RectF;
 import android.util.AttributeSet;
+import org.ros.android.NativeJpegEncoder;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
 import org.ros.node.NodeMain;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Displays and publishes preview frames from the camera.
  * 
@@ -30,6 +37,16 @@ import org.ros.node.NodeMain;
  */
 public class RosCameraPreviewView extends CameraPreviewView implements NodeMain {
 
+  private CompressedImagePublisher compressedImagePublisher;
+  private PublishMode publishMode = PublishMode.JPEG;
+  private int targetBitrate;
+  private float maximumFrameRate = Float.MAX_VALUE;
+  private CameraCalibration calibration;
+  private float cameraInfoRate;
+  private CaptureConfiguration captureConfiguration;
+  private boolean nativeEncoding;
+  private final List<SimulcastOutput> simulcastOutputs = new ArrayList<SimulcastOutput>();
+
   public RosCameraPreviewView(Context context) {
     super(context);
   }
@@ -42,18 +59,161 @@ public class RosCameraPreviewView extends CameraPreviewView implements NodeMain
     super(context, attrs, defStyle);
   }
 
+  /**
+   * Selects how frames are published, see {@link PublishMode}. May be changed
+   * at any time. Defaults to {@link PublishMode#JPEG}.
+   */
+  public synchronized void setPublishMode(PublishMode publishMode) {
+    this.publishMode = publishMode;
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.setPublishMode(publishMode);
+    }
+  }
+
+  /**
+   * Adapts JPEG quality and frame rate to publish about the given number of
+   * bits per second. With 0, the default, frames are published at a fixed
+   * quality, or within the budget of the capture target if one is set.
+   */
+  public synchronized void setTargetBitrate(int bitsPerSecond) {
+    targetBitrate = bitsPerSecond;
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.setTargetBitrate(getPublishBitrate());
+    }
+  }
+
+  /**
+   * Limits the number of frames published per second. By default every
+   * captured frame is published unless encoding falls behind.
+   */
+  public synchronized void setMaximumFrameRate(float frameRate) {
+    maximumFrameRate = frameRate;
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.setMaximumFrameRate(getPublishFrameRate());
+    }
+  }
+
+  /**
+   * Enables compressing JPEG frames with libjpeg-turbo. Has no effect if
+   * {@link NativeJpegEncoder#isAvailable()} returns {@code false}, frames are
+   * then compressed with {@link android.graphics.YuvImage} as before.
+   */
+  public synchronized void setNativeEncoding(boolean nativeEncoding) {
+    this.nativeEncoding = nativeEncoding;
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.setNativeEncoding(nativeEncoding);
+    }
+  }
+
+  /**
+   * Sets the calibration published as camera info. It is scaled and cropped to
+   * match every output. Without a calibration only the image size is
+   * published.
+   */
+  public synchronized void setCalibration(CameraCalibration calibration) {
+    this.calibration = calibration;
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.setCalibration(calibration);
+    }
+  }
+
+  /**
+   * Limits how often camera info is published per second, e.g. if consumers
+   * only need the calibration and not a camera info for every frame. With 0,
+   * the default, camera info is published with every frame.
+   */
+  public synchronized void setCameraInfoRate(float rate) {
+    cameraInfoRate = rate;
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.setCameraInfoRate(rate);
+    }
+  }
+
+  /**
+   * Adds a JPEG stream published on {@code camera/<name>/image/compressed} in
+   * addition to the primary stream, e.g. a thumbnail for monitoring clients or
+   * a region of interest at full resolution.
+   *
+   * @param maximumWidth
+   *          frames wider than this are scaled down, 0 to keep the full
+   *          resolution
+   * @param region
+   *          the region of interest in coordinates relative to the frame, i.e.
+   *          {@code new RectF(0, 0, 1, 1)} for the whole frame
+   * @return the output, which can be used to set its rate and quality
+   */
+  public synchronized SimulcastOutput addSimulcastOutput(String name, int maximumWidth,
+      RectF region) {
+    Preconditions.checkArgument(simulcastOutputs.size()
+        < CompressedImagePublisher.MAXIMUM_SIMULCAST_OUTPUTS, "Too many simulcast outputs.");
+    SimulcastOutput simulcastOutput = new SimulcastOutput(name, maximumWidth, region);
+    simulcastOutputs.add(simulcastOutput);
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.addSimulcastOutput(simulcastOutput);
+    }
+    return simulcastOutput;
+  }
+
+  /**
+   * Publishes at the size and frame rate planned for the capture target and
+   * keeps within its bitrate budget.
+   */
+  @Override
+  protected synchronized void onCaptureConfigurationChanged(
+      CaptureConfiguration captureConfiguration) {
+    this.captureConfiguration = captureConfiguration;
+    if (compressedImagePublisher != null) {
+      applyCaptureConfiguration();
+    }
+  }
+
+  private void applyCaptureConfiguration() {
+    compressedImagePublisher.setPublishWidth(
+        captureConfiguration != null ? captureConfiguration.getPublishWidth() : 0);
+    compressedImagePublisher.setTargetBitrate(getPublishBitrate());
+    compressedImagePublisher.setMaximumFrameRate(getPublishFrameRate());
+  }
+
+  private int getPublishBitrate() {
+    if (targetBitrate == 0 && captureConfiguration != null) {
+      return captureConfiguration.getTarget().getMaximumBitrate();
+    }
+    return targetBitrate;
+  }
+
+  private float getPublishFrameRate() {
+    if (captureConfiguration != null) {
+      return Math.min(maximumFrameRate, captureConfiguration.getFrameRate());
+    }
+    return maximumFrameRate;
+  }
+
   @Override
   public GraphName getDefaultNodeName() {
     return GraphName.of("ros_camera_preview_view");
   }
 
   @Override
-  public void onStart(ConnectedNode connectedNode) {
-    setRawImageListener(new CompressedImagePublisher(connectedNode));
+  public synchronized void onStart(ConnectedNode connectedNode) {
+    compressedImagePublisher = new CompressedImagePublisher(connectedNode);
+    compressedImagePublisher.setPublishMode(publishMode);
+    applyCaptureConfiguration();
+    compressedImagePublisher.setCalibration(calibration);
+    compressedImagePublisher.setCameraInfoRate(cameraInfoRate);
+    compressedImagePublisher.setNativeEncoding(nativeEncoding);
+    for (SimulcastOutput simulcastOutput : simulcastOutputs) {
+      compressedImagePublisher.addSimulcastOutput(simulcastOutput);
+    }
+    setFrameListener(compressedImagePublisher);
   }
 
   @Override
-  public void onShutdown(Node node) {
+  public synchronized void onShutdown(Node node) {
+    setFrameListener(null);
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.shutdown();
+      compressedImagePublisher = null;
+    }
   }
 
   @Override
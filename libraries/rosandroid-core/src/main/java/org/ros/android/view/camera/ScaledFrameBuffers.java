@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.YuvImage;
+
+/**
+ * Scratch frames that scaled frames are written to, one per encoding thread.
+ */
+final class ScaledFrameBuffers {
+
+  private final byte[][] frames;
+  private final YuvImage[] images;
+
+  ScaledFrameBuffers() {
+    frames = new byte[CompressedImagePublisher.MAXIMUM_ENCODING_THREADS][];
+    images = new YuvImage[CompressedImagePublisher.MAXIMUM_ENCODING_THREADS];
+  }
+
+  /**
+   * Scales the frame into the scratch frame of the worker.
+   *
+   * @return an image wrapping the scaled frame
+   */
+  YuvImage scale(byte[] data, YuvScaler scaler, int worker) {
+    byte[] frame = frames[worker];
+    YuvImage image = images[worker];
+    if (frame == null || image.getWidth() != scaler.getWidth()
+        || image.getHeight() != scaler.getHeight()) {
+      frame = new byte[scaler.getScaledSize()];
+      image = new YuvImage(frame, ImageFormat.NV21, scaler.getWidth(), scaler.getHeight(), null);
+      frames[worker] = frame;
+      images[worker] = image;
+    }
+    scaler.scale(data, frame);
+    return image;
+  }
+}
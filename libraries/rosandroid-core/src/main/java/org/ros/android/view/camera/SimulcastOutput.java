@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.RectF;
+import org.ros.android.MessagePool;
+import org.ros.namespace.NameResolver;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+/**
+ * An additional JPEG stream of the camera preview, scaled down and optionally
+ * cropped to a region of interest.
+ * <p>
+ * Each output publishes on {@code camera/<name>/image/compressed} and
+ * {@code camera/<name>/camera_info} with its own frame rate and quality, and is
+ * only encoded while it has subscribers. See
+ * {@link RosCameraPreviewView#addSimulcastOutput(String, int, RectF)}.
+ */
+public class SimulcastOutput {
+
+  private final String name;
+  private final int maximumWidth;
+  private final RectF region;
+  private final JpegRateController rateController;
+
+  private final ScaledFrameBuffers scaledFrames;
+
+  private volatile YuvScaler scaler;
+  private Publisher<sensor_msgs.CompressedImage> imagePublisher;
+  private MessagePool<sensor_msgs.CompressedImage> imageMessagePool;
+  private CameraInfoPublisher cameraInfoPublisher;
+
+  /**
+   * @see RosCameraPreviewView#addSimulcastOutput(String, int, RectF)
+   */
+  public SimulcastOutput(String name, int maximumWidth, RectF region) {
+    Preconditions.checkArgument(maximumWidth >= 0);
+    this.name = name;
+    this.maximumWidth = maximumWidth;
+    this.region = new RectF(region);
+    rateController = new JpegRateController();
+    scaledFrames = new ScaledFrameBuffers();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @see RosCameraPreviewView#setMaximumFrameRate(float)
+   */
+  public void setMaximumFrameRate(float frameRate) {
+    rateController.setMaximumFrameRate(frameRate);
+  }
+
+  /**
+   * @see RosCameraPreviewView#setTargetBitrate(int)
+   */
+  public void setTargetBitrate(int bitsPerSecond) {
+    rateController.setTargetBitrate(bitsPerSecond);
+  }
+
+  /**
+   * @param quality
+   *          the JPEG quality used while no target bitrate is set
+   */
+  public void setQuality(int quality) {
+    rateController.setQuality(quality);
+  }
+
+  synchronized void start(ConnectedNode connectedNode, NameResolver cameraResolver) {
+    NameResolver resolver = cameraResolver.newChild(name);
+    imagePublisher =
+        connectedNode.newPublisher(resolver.resolve("image/compressed"),
+            sensor_msgs.CompressedImage._TYPE);
+    imageMessagePool = new MessagePool<sensor_msgs.CompressedImage>(connectedNode,
+        imagePublisher, CompressedImagePublisher.IMAGE_MESSAGE_POOL_CAPACITY);
+    cameraInfoPublisher =
+        new CameraInfoPublisher(connectedNode, resolver.resolve("camera_info"), "camera");
+  }
+
+  synchronized Publisher<sensor_msgs.CompressedImage> getImagePublisher() {
+    return imagePublisher;
+  }
+
+  synchronized MessagePool<sensor_msgs.CompressedImage> getImageMessagePool() {
+    return imageMessagePool;
+  }
+
+  synchronized CameraInfoPublisher getCameraInfoPublisher() {
+    return cameraInfoPublisher;
+  }
+
+  JpegRateController getRateController() {
+    return rateController;
+  }
+
+  /**
+   * @return {@code true} if a frame captured now should be published
+   */
+  boolean acceptFrame(long nowNanos) {
+    Publisher<sensor_msgs.CompressedImage> imagePublisher = getImagePublisher();
+    return imagePublisher != null && imagePublisher.hasSubscribers()
+        && rateController.acceptFrame(nowNanos);
+  }
+
+  /**
+   * @return the scaler for frames of the given size
+   */
+  YuvScaler getScaler(int sourceWidth, int sourceHeight) {
+    YuvScaler scaler = this.scaler;
+    if (scaler == null || !scaler.hasSourceSize(sourceWidth, sourceHeight)) {
+      scaler = new YuvScaler(sourceWidth, sourceHeight, region, maximumWidth);
+      this.scaler = scaler;
+    }
+    return scaler;
+  }
+
+  ScaledFrameBuffers getScaledFrameBuffers() {
+    return scaledFrames;
+  }
+}
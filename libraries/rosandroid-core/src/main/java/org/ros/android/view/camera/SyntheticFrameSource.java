@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.ImageFormat;
+
+import java.util.ArrayDeque;
+
+/**
+ * Generates deterministic NV21 frames, e.g. to benchmark the publishing
+ * pipeline without a camera.
+ * <p>
+ * Frame {@code n} always has the same content, a moving gradient with a
+ * little noise so it does not compress unrealistically well. Frames are
+ * generated on a thread of their own into a fixed number of buffers. When
+ * all buffers are held by the listener, a frame that is due is dropped, just
+ * like the camera does.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+  private static final int DEFAULT_BUFFER_COUNT = 5;
+
+  private final int width;
+  private final int height;
+  private final long frameIntervalNanos;
+  private final int bufferCount;
+
+  // Guards the free buffers and the generator state.
+  private final Object mutex = new Object();
+  private final ArrayDeque<byte[]> freeBuffers;
+  private byte[][] buffers;
+  private Thread thread;
+  private long generatedFrames;
+  private long droppedFrames;
+
+  private volatile FrameListener frameListener;
+
+  public SyntheticFrameSource(int width, int height, float frameRate) {
+    this(width, height, frameRate, DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * @param frameRate
+   *          frames generated per second, or 0 to generate a frame whenever a
+   *          buffer is free
+   * @param bufferCount
+   *          the number of frame buffers
+   */
+  public SyntheticFrameSource(int width, int height, float frameRate, int bufferCount) {
+    Preconditions.checkArgument(width > 0 && width % 2 == 0);
+    Preconditions.checkArgument(height > 0 && height % 2 == 0);
+    Preconditions.checkArgument(frameRate >= 0);
+    Preconditions.checkArgument(bufferCount > 0);
+    this.width = width;
+    this.height = height;
+    this.bufferCount = bufferCount;
+    frameIntervalNanos = frameRate > 0 ? (long) (1e9 / frameRate) : 0;
+    freeBuffers = new ArrayDeque<byte[]>(bufferCount);
+  }
+
+  /**
+   * Fills {@code data} with frame {@code index}.
+   */
+  public static void fillFrame(byte[] data, int width, int height, long index) {
+    int offset = (int) (index * 2);
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        data[i++] = (byte) (x + y + offset + noise(x, y, index));
+      }
+    }
+    for (int y = 0; y < height / 2; y++) {
+      for (int x = 0; x < width / 2; x++) {
+        data[i++] = (byte) (128 + ((x + offset) & 0x3f) - 32);
+        data[i++] = (byte) (128 + ((y + offset) & 0x3f) - 32);
+      }
+    }
+  }
+
+  private static int noise(int x, int y, long index) {
+    return ((x * 73856093) ^ (y * 19349663) ^ ((int) index * 83492791)) >>> 28;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public void setFrameListener(FrameListener frameListener) {
+    this.frameListener = frameListener;
+  }
+
+  @Override
+  public void releaseFrame(byte[] data) {
+    synchronized (mutex) {
+      if (buffers == null) {
+        return;
+      }
+      for (byte[] buffer : buffers) {
+        if (buffer == data) {
+          Preconditions.checkState(!freeBuffers.contains(data), "Frame released twice.");
+          freeBuffers.addLast(data);
+          mutex.notifyAll();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts generating frames.
+   */
+  public void start() {
+    synchronized (mutex) {
+      Preconditions.checkState(thread == null, "Already started.");
+      buffers = new byte[bufferCount][];
+      freeBuffers.clear();
+      for (int i = 0; i < bufferCount; i++) {
+        buffers[i] = new byte[width * height * 3 / 2];
+        freeBuffers.add(buffers[i]);
+      }
+      thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            generateFrames();
+          } catch (InterruptedException e) {
+            // Stopped.
+          }
+        }
+      }, "SyntheticFrameSource");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops generating frames. Frames still held by the listener may be
+   * released afterwards.
+   */
+  public void stop() {
+    Thread thread;
+    synchronized (mutex) {
+      thread = this.thread;
+      this.thread = null;
+      buffers = null;
+      freeBuffers.clear();
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private void generateFrames() throws InterruptedException {
+    long index = 0;
+    long nextFrameNanos = System.nanoTime();
+    while (!Thread.currentThread().isInterrupted()) {
+      if (frameIntervalNanos > 0) {
+        long delayNanos = nextFrameNanos - System.nanoTime();
+        if (delayNanos > 0) {
+          Thread.sleep(delayNanos / 1000000, (int) (delayNanos % 1000000));
+        }
+        nextFrameNanos += frameIntervalNanos;
+      }
+      byte[] data;
+      synchronized (mutex) {
+        if (frameIntervalNanos == 0) {
+          while (freeBuffers.isEmpty()) {
+            mutex.wait();
+          }
+        }
+        data = freeBuffers.pollFirst();
+        if (data == null) {
+          droppedFrames++;
+        } else {
+          generatedFrames++;
+        }
+      }
+      if (data == null) {
+        continue;
+      }
+      long timestampNanos = System.nanoTime();
+      fillFrame(data, width, height, index++);
+      FrameListener frameListener = this.frameListener;
+      if (frameListener != null) {
+        frameListener.onNewFrame(data, width, height, ImageFormat.NV21, timestampNanos, this);
+      } else {
+        releaseFrame(data);
+      }
+    }
+  }
+
+  /**
+   * @return the number of frames handed to the listener
+   */
+  public long getGeneratedFrameCount() {
+    synchronized (mutex) {
+      return generatedFrames;
+    }
+  }
+
+  /**
+   * @return the number of frames dropped because no buffer was free
+   */
+  public long getDroppedFrameCount() {
+    synchronized (mutex) {
+      return droppedFrames;
+    }
+  }
+}
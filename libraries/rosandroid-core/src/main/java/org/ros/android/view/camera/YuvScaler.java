@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Crops and downscales NV21 frames of one size.
+ * <p>
+ * The crop is aligned to even coordinates so chroma samples stay aligned.
+ * Scaling picks the nearest source sample; the source columns are looked up
+ * in precomputed tables, so scaling a frame does not allocate.
+ */
+final class YuvScaler {
+
+  private final int sourceWidth;
+  private final int sourceHeight;
+  private final Rect crop;
+  private final int width;
+  private final int height;
+  private final int[] lumaColumns;
+  private final int[] chromaColumns;
+
+  /**
+   * @param region
+   *          the region to crop in coordinates relative to the frame size,
+   *          i.e. from 0 to 1
+   * @param maximumWidth
+   *          the maximum width of the scaled frame, or 0 to not scale
+   */
+  YuvScaler(int sourceWidth, int sourceHeight, RectF region, int maximumWidth) {
+    Preconditions.checkArgument(sourceWidth >= 2 && sourceHeight >= 2);
+    this.sourceWidth = sourceWidth;
+    this.sourceHeight = sourceHeight;
+    int left = Math.max(0, Math.round(region.left * sourceWidth)) & ~1;
+    int top = Math.max(0, Math.round(region.top * sourceHeight)) & ~1;
+    int right = Math.min(sourceWidth, Math.round(region.right * sourceWidth)) & ~1;
+    int bottom = Math.min(sourceHeight, Math.round(region.bottom * sourceHeight)) & ~1;
+    if (right - left < 2 || bottom - top < 2) {
+      crop = new Rect(0, 0, sourceWidth & ~1, sourceHeight & ~1);
+    } else {
+      crop = new Rect(left, top, right, bottom);
+    }
+
+    if (maximumWidth > 0 && maximumWidth < crop.width()) {
+      width = Math.max(2, maximumWidth & ~1);
+      height = Math.max(2, (int) ((long) crop.height() * width / crop.width()) & ~1);
+    } else {
+      width = crop.width();
+      height = crop.height();
+    }
+
+    lumaColumns = new int[width];
+    for (int x = 0; x < width; x++) {
+      lumaColumns[x] = crop.left + (int) ((long) x * crop.width() / width);
+    }
+    chromaColumns = new int[width / 2];
+    for (int x = 0; x < width / 2; x++) {
+      chromaColumns[x] = crop.left + 2 * (int) ((long) x * crop.width() / width);
+    }
+  }
+
+  boolean hasSourceSize(int sourceWidth, int sourceHeight) {
+    return this.sourceWidth == sourceWidth && this.sourceHeight == sourceHeight;
+  }
+
+  /**
+   * @return {@code true} if the frame has to be scaled, otherwise it is enough
+   *         to compress the crop rectangle of the source frame
+   */
+  boolean isScaling() {
+    return width != crop.width() || height != crop.height();
+  }
+
+  Rect getCrop() {
+    return crop;
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return the size of a scaled NV21 frame in bytes
+   */
+  int getScaledSize() {
+    return width * height * 3 / 2;
+  }
+
+  void scale(byte[] source, byte[] destination) {
+    int cropHeight = crop.height();
+    int index = 0;
+    for (int y = 0; y < height; y++) {
+      int row = (crop.top + (int) ((long) y * cropHeight / height)) * sourceWidth;
+      for (int x = 0; x < width; x++) {
+        destination[index++] = source[row + lumaColumns[x]];
+      }
+    }
+    int chromaOffset = sourceWidth * sourceHeight;
+    for (int y = 0; y < height / 2; y++) {
+      int sourceRow = crop.top + 2 * (int) ((long) y * cropHeight / height);
+      int row = chromaOffset + (sourceRow / 2) * sourceWidth;
+      for (int x = 0; x < width / 2; x++) {
+        int column = row + chromaColumns[x];
+        destination[index++] = source[column];
+        destination[index++] = source[column + 1];
+      }
+    }
+  }
+}
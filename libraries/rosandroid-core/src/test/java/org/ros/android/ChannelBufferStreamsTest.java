@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class ChannelBufferStreamsTest {
+
+  // Bytes before the reader index that must not be decoded.
+  private static final int SKIPPED = 3;
+
+  private static byte[] newData(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i * 7 + 1);
+    }
+    return data;
+  }
+
+  private static byte[] readAll(InputStream stream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[5];
+    int length;
+    while ((length = stream.read(chunk)) >= 0) {
+      bytes.write(chunk, 0, length);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Checks that the stream yields exactly the readable bytes and leaves the
+   * reader index of the buffer untouched.
+   */
+  private static void assertStreamsReadableBytes(ChannelBuffer buffer, byte[] data)
+      throws IOException {
+    buffer.readerIndex(SKIPPED);
+    byte[] expected = Arrays.copyOfRange(data, SKIPPED, data.length);
+    assertEquals(expected.length, buffer.readableBytes());
+    assertArrayEquals(expected, readAll(ChannelBufferStreams.newInputStream(buffer)));
+    assertEquals(SKIPPED, buffer.readerIndex());
+    assertEquals(data.length, buffer.writerIndex());
+    // A second decode of the same message sees the same bytes.
+    assertArrayEquals(expected, readAll(ChannelBufferStreams.newInputStream(buffer)));
+  }
+
+  @Test
+  public void testHeapBufferIsReadInPlace() throws IOException {
+    byte[] data = newData(32);
+    byte[] backing = new byte[data.length + 4];
+    System.arraycopy(data, 0, backing, 4, data.length);
+    // A slice of a larger array, so the array offset is not 0 either.
+    ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(backing, 4, data.length);
+    buffer.readerIndex(SKIPPED);
+    assertTrue(buffer.hasArray());
+    assertTrue(buffer.array() == backing);
+    int offset = ChannelBufferStreams.getArrayOffset(buffer);
+    assertEquals(4 + SKIPPED, offset);
+    assertArrayEquals(Arrays.copyOfRange(data, SKIPPED, data.length),
+        Arrays.copyOfRange(buffer.array(), offset, offset + buffer.readableBytes()));
+    assertEquals(SKIPPED, buffer.readerIndex());
+    assertStreamsReadableBytes(buffer, data);
+  }
+
+  @Test
+  public void testDirectBufferIsStreamed() throws IOException {
+    byte[] data = newData(32);
+    ChannelBuffer buffer = ChannelBuffers.directBuffer(data.length);
+    buffer.writeBytes(data);
+    assertFalse(buffer.hasArray());
+    assertStreamsReadableBytes(buffer, data);
+  }
+
+  @Test
+  public void testCompositeBufferIsStreamed() throws IOException {
+    byte[] data = newData(32);
+    ChannelBuffer buffer =
+        ChannelBuffers.wrappedBuffer(ChannelBuffers.wrappedBuffer(data, 0, 10),
+            ChannelBuffers.wrappedBuffer(data, 10, data.length - 10));
+    assertFalse(buffer.hasArray());
+    assertStreamsReadableBytes(buffer, data);
+  }
+}
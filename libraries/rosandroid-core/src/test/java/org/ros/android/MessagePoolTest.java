@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessagePoolTest {
+
+  private List<Object> published;
+  private boolean latched;
+  private MessagePool<Object> pool;
+
+  @SuppressWarnings("unchecked")
+  private Publisher<Object> newPublisher() {
+    return (Publisher<Object>) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { Publisher.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("newMessage")) {
+              return new Object();
+            } else if (name.equals("publish")) {
+              published.add(args[0]);
+            } else if (name.equals("getLatchMode")) {
+              return latched;
+            } else if (name.equals("getTopicMessageType")) {
+              return "std_msgs/String";
+            }
+            return null;
+          }
+        });
+  }
+
+  // A node without a serialization tracker, serializations are reported to
+  // the pool directly.
+  private ConnectedNode newNode() {
+    return (ConnectedNode) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { ConnectedNode.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return null;
+          }
+        });
+  }
+
+  @Before
+  public void setUp() {
+    published = new ArrayList<Object>();
+    latched = false;
+    pool = new MessagePool<Object>(newNode(), newPublisher(), 2);
+  }
+
+  @Test
+  public void testSerializedMessageIsReused() {
+    Object message = pool.acquire();
+    pool.publish(message);
+    assertEquals(1, published.size());
+    assertSame(message, published.get(0));
+    pool.onMessageSerialized(message);
+    assertSame(message, pool.acquire());
+    assertEquals(1, pool.getAllocatedMessageCount());
+  }
+
+  @Test
+  public void testPublishedMessageIsNotReusedBeforeSerialization() {
+    Object message = pool.acquire();
+    pool.publish(message);
+    assertNotSame(message, pool.acquire());
+    assertEquals(2, pool.getAllocatedMessageCount());
+  }
+
+  @Test
+  public void testReleasedMessageIsReused() {
+    Object message = pool.acquire();
+    pool.release(message);
+    assertSame(message, pool.acquire());
+    assertEquals(0, published.size());
+  }
+
+  @Test
+  public void testOldestPublishedMessageIsForgottenWhenFull() {
+    Object first = pool.acquire();
+    pool.publish(first);
+    Object second = pool.acquire();
+    pool.publish(second);
+    Object third = pool.acquire();
+    assertNotSame(first, third);
+    assertNotSame(second, third);
+    // The forgotten message is no longer part of the pool.
+    pool.onMessageSerialized(first);
+    pool.publish(third);
+    pool.onMessageSerialized(second);
+    assertSame(second, pool.acquire());
+    assertEquals(3, pool.getAllocatedMessageCount());
+  }
+
+  @Test
+  public void testSerializationOfUnknownMessageIsIgnored() {
+    Object message = pool.acquire();
+    pool.publish(message);
+    pool.onMessageSerialized(new Object());
+    assertNotSame(message, pool.acquire());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAcquireFailsIfAllMessagesAreLeased() {
+    pool.acquire();
+    pool.acquire();
+    pool.acquire();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPublishingForeignMessageIsRejected() {
+    pool.publish(new Object());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPublishingTwiceIsRejected() {
+    Object message = pool.acquire();
+    pool.publish(message);
+    pool.publish(message);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLatchedPublisherIsRejected() {
+    latched = true;
+    new MessagePool<Object>(newNode(), newPublisher(), 2);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CameraInfoPublisherTest {
+
+  private static final double DELTA = 1e-9;
+
+  private static final double[] K = { 500, 0, 320, 0, 500, 240, 0, 0, 1 };
+  // A right camera of a stereo pair with a baseline of 5 cm.
+  private static final double[] P = { 500, 0, 320, -25, 0, 500, 240, 0, 0, 0, 1, 0 };
+
+  private CameraCalibration calibration;
+
+  @Before
+  public void setUp() {
+    double[] identity = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+    calibration =
+        new CameraCalibration(640, 480, "plumb_bob", new double[5], K, identity, P);
+  }
+
+  private void assertScaledMatrices(double[] k, double[] p, int sourceWidth, int sourceHeight,
+      int cropLeft, int cropTop, int cropWidth, int cropHeight, int width, int height) {
+    double[][] matrices = CameraInfoPublisher.scaleMatrices(calibration, sourceWidth,
+        sourceHeight, cropLeft, cropTop, cropWidth, cropHeight, width, height);
+    assertArrayEquals(k, matrices[0], DELTA);
+    assertArrayEquals(p, matrices[1], DELTA);
+  }
+
+  @Test
+  public void testCalibratedGeometryIsUnchanged() {
+    assertScaledMatrices(K, P, 640, 480, 0, 0, 640, 480, 640, 480);
+  }
+
+  @Test
+  public void testScaledOutput() {
+    assertScaledMatrices(new double[] { 250, 0, 160, 0, 250, 120, 0, 0, 1 },
+        new double[] { 250, 0, 160, -12.5, 0, 250, 120, 0, 0, 0, 1, 0 },
+        640, 480, 0, 0, 640, 480, 320, 240);
+  }
+
+  @Test
+  public void testSourceAtOtherResolutionThanCalibration() {
+    assertScaledMatrices(new double[] { 1000, 0, 640, 0, 1000, 480, 0, 0, 1 },
+        new double[] { 1000, 0, 640, -50, 0, 1000, 480, 0, 0, 0, 1, 0 },
+        1280, 960, 0, 0, 1280, 960, 1280, 960);
+  }
+
+  @Test
+  public void testCroppedOutputMovesPrincipalPoint() {
+    assertScaledMatrices(new double[] { 500, 0, 160, 0, 500, 120, 0, 0, 1 },
+        new double[] { 500, 0, 160, -25, 0, 500, 120, 0, 0, 0, 1, 0 },
+        640, 480, 160, 120, 320, 240, 320, 240);
+  }
+
+  @Test
+  public void testCroppedAndScaledOutput() {
+    assertScaledMatrices(new double[] { 1000, 0, 320, 0, 1000, 240, 0, 0, 1 },
+        new double[] { 1000, 0, 320, -50, 0, 1000, 240, 0, 0, 0, 1, 0 },
+        640, 480, 160, 120, 320, 240, 640, 480);
+  }
+
+  @Test
+  public void testAnisotropicScaling() {
+    assertScaledMatrices(new double[] { 250, 0, 160, 0, 500, 240, 0, 0, 1 },
+        new double[] { 250, 0, 160, -12.5, 0, 500, 240, 0, 0, 0, 1, 0 },
+        640, 480, 0, 0, 640, 480, 320, 480);
+  }
+
+  @Test
+  public void testCalibrationIsNotModified() {
+    CameraInfoPublisher.scaleMatrices(calibration, 640, 480, 160, 120, 320, 240, 1280, 960);
+    assertArrayEquals(K, calibration.getK(), DELTA);
+    assertArrayEquals(P, calibration.getP(), DELTA);
+  }
+}
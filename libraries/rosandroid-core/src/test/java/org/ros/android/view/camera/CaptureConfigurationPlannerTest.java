@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CaptureConfigurationPlannerTest {
+
+  private static final float DELTA = 1e-3f;
+
+  private CaptureConfigurationPlanner planner;
+  private List<int[]> sizes;
+  private List<int[]> ranges;
+
+  @Before
+  public void setUp() {
+    planner = new CaptureConfigurationPlanner();
+    sizes = Arrays.asList(new int[] { 320, 240 }, new int[] { 640, 480 },
+        new int[] { 1280, 720 }, new int[] { 1920, 1080 });
+    ranges = Arrays.asList(new int[] { 7000, 60000 }, new int[] { 15000, 30000 },
+        new int[] { 30000, 30000 });
+  }
+
+  @Test
+  public void testChoosesSmallestCoveringSizeWithMatchingAspectRatio() {
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(1280, 720, 30, 0), sizes,
+        ranges);
+    assertEquals(1280, configuration.getPreviewWidth());
+    assertEquals(720, configuration.getPreviewHeight());
+    assertEquals(1280, configuration.getPublishWidth());
+    assertEquals(720, configuration.getPublishHeight());
+  }
+
+  @Test
+  public void testKeepsPreviewAspectRatioIfNoneMatches() {
+    // No 4:3 size covers 800x600, so the smallest covering 16:9 size is used
+    // and the published frames keep its aspect ratio.
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(800, 600, 30, 0), sizes,
+        ranges);
+    assertEquals(1280, configuration.getPreviewWidth());
+    assertEquals(720, configuration.getPreviewHeight());
+    assertEquals(800, configuration.getPublishWidth());
+    assertEquals(450, configuration.getPublishHeight());
+  }
+
+  @Test
+  public void testUsesLargestSizeIfTargetExceedsCamera() {
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(2560, 1440, 30, 0),
+        sizes, ranges);
+    assertEquals(1920, configuration.getPreviewWidth());
+    assertEquals(1080, configuration.getPreviewHeight());
+    assertEquals(1920, configuration.getPublishWidth());
+    assertEquals(1080, configuration.getPublishHeight());
+  }
+
+  @Test
+  public void testChoosesNarrowestRangeContainingFrameRate() {
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(640, 480, 30, 0), sizes,
+        ranges);
+    assertEquals(30000, configuration.getMinimumPreviewFrameRate());
+    assertEquals(30000, configuration.getMaximumPreviewFrameRate());
+    assertEquals(30, configuration.getFrameRate(), DELTA);
+
+    configuration = planner.plan(new CaptureTarget(640, 480, 20, 0), sizes, ranges);
+    assertEquals(15000, configuration.getMinimumPreviewFrameRate());
+    assertEquals(30000, configuration.getMaximumPreviewFrameRate());
+    assertEquals(20, configuration.getFrameRate(), DELTA);
+  }
+
+  @Test
+  public void testLimitsFrameRateToClosestRange() {
+    List<int[]> slowRanges = Collections.singletonList(new int[] { 15000, 30000 });
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(640, 480, 60, 0), sizes,
+        slowRanges);
+    assertEquals(15000, configuration.getMinimumPreviewFrameRate());
+    assertEquals(30000, configuration.getMaximumPreviewFrameRate());
+    assertEquals(30, configuration.getFrameRate(), DELTA);
+  }
+
+  @Test
+  public void testBudgetReducesPublishSizeFirst() {
+    // 640x480 at 30 fps and 0.5 bits per pixel take 4608000 bit/s.
+    int budget = 2304000;
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(640, 480, 30, budget),
+        sizes, ranges);
+    assertEquals(640, configuration.getPreviewWidth());
+    assertEquals(480, configuration.getPreviewHeight());
+    assertEquals(452, configuration.getPublishWidth());
+    assertEquals(338, configuration.getPublishHeight());
+    assertEquals(30, configuration.getFrameRate(), DELTA);
+    assertTrue(configuration.getEstimatedBitrate() <= budget);
+  }
+
+  @Test
+  public void testBudgetReducesFrameRateBelowHalfSize() {
+    int budget = 576000;
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(640, 480, 30, budget),
+        sizes, ranges);
+    assertEquals(320, configuration.getPublishWidth());
+    assertEquals(240, configuration.getPublishHeight());
+    assertEquals(15, configuration.getFrameRate(), DELTA);
+    assertTrue(configuration.getEstimatedBitrate() <= budget);
+  }
+
+  @Test
+  public void testBitsPerPixelScalesEstimate() {
+    planner.setBitsPerPixel(1);
+    CaptureConfiguration configuration = planner.plan(new CaptureTarget(640, 480, 30, 0), sizes,
+        ranges);
+    assertEquals(640 * 480 * 30, configuration.getEstimatedBitrate());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnreachableBudgetIsRejected() {
+    planner.plan(new CaptureTarget(640, 480, 30, 10000), sizes, ranges);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoPreviewSizesIsRejected() {
+    planner.plan(new CaptureTarget(640, 480, 30, 0), new ArrayList<int[]>(), ranges);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoFrameRateRangesIsRejected() {
+    planner.plan(new CaptureTarget(640, 480, 30, 0), sizes, new ArrayList<int[]>());
+  }
+}
@@ -3,12 +3,17 @@ package org.ollide.rosandroid;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.TextView;
 
 import org.ros.address.InetAddressFactory;
 import org.ros.android.BitmapFromCompressedImage;
+import org.ros.android.BitmapPool;
+import org.ros.android.MessageSerializationTracker;
 import org.ros.android.RosActivity;
+import org.ros.android.TeleopPublisher;
+import org.ros.android.view.ImageDecodeWorker;
 import org.ros.android.view.RosImageView;
 import org.ros.concurrent.CancellableLoop;
 import org.ros.namespace.GraphName;
@@ -21,12 +26,20 @@ import org.ros.node.topic.Publisher;
 
 import java.util.Locale;
 
-import geometry_msgs.Twist;
 import io.github.controlwear.virtual.joystick.android.JoystickView;
 import std_msgs.String;
 
 public class CameraView extends RosActivity {
 
+    /* decodes camera frames so the UI thread only has to swap them in */
+    private final ImageDecodeWorker CameraDecodeWorker = new ImageDecodeWorker();
+
+    /* rate at which cmd_vel is published, in messages per second */
+    private static final float CMD_VEL_RATE = 20;
+
+    /* publishes the latest joystick velocity on cmd_vel */
+    private TeleopPublisher CmdVelPublisher;
+
     public CameraView() {
         super("Camera View", "Camera View");
     }
@@ -58,14 +71,26 @@ public class CameraView extends RosActivity {
     }
 
     private void JoystickNodeInit(NodeMainExecutor  nodeMainExecutor) {
-        /* initiate joystick node */
-        NodeMain JoystickNode = new JoystickNode();
+        /*
+        cmd_vel is published at a fixed rate from its own thread, the joystick only updates
+        the latest velocity
+        */
+        /* TODO: Allow user to choose cmd_vel in master chooser */
+        CmdVelPublisher = new TeleopPublisher(getString(R.string.CmdVelTopic));
+        CmdVelPublisher.setRate(CMD_VEL_RATE);
 
+        /* initiate joystick node */
         NodeConfiguration nodeConfiguration = NodeConfiguration.newPublic(
                 InetAddressFactory.newNonLoopback().getHostAddress());
         nodeConfiguration.setMasterUri(getMasterUri());
 
-        nodeMainExecutor.execute(JoystickNode, nodeConfiguration);
+        /* lets the teleop publisher reuse its messages once they have been sent */
+        MessageSerializationTracker.install(nodeConfiguration);
+
+        nodeMainExecutor.execute(CmdVelPublisher,
+                nodeConfiguration.setNodeName("RosJava/JoystickNode"));
+
+        JoystickInit();
     }
 
     /* this function will create the camera view */
@@ -79,7 +104,14 @@ public class CameraView extends RosActivity {
 
         /* compressed image being used */
         CameraImage.setMessageType(sensor_msgs.CompressedImage._TYPE);
-        CameraImage.setMessageToBitmapCallable(new BitmapFromCompressedImage());
+        /* decoded frames are recycled through a pool shared with the view */
+        BitmapPool CameraBitmapPool = new BitmapPool();
+        CameraImage.setBitmapPool(CameraBitmapPool);
+        CameraImage.setMessageToBitmapCallable(new BitmapFromCompressedImage(CameraBitmapPool));
+
+        /* only decode the newest frame if the view falls behind */
+        CameraImage.setFrameCoalescing(true);
+        CameraImage.setDecodeExecutor(CameraDecodeWorker);
 
         /* create a node connection */
         NodeConfiguration nodeConfiguration =
@@ -128,121 +160,136 @@ public class CameraView extends RosActivity {
         }
     }
 
-    /* this function creates the node for the joystick */
-    private class JoystickNode extends AbstractNodeMain implements NodeMain {
+    /* connects the joystick to the teleop publisher and the speed label */
+    private void JoystickInit() {
+        /*
+        credit to https://github.com/controlwear/virtual-joystick-android
+        (requires min sdk version 16 at least)
+        */
+        JoystickView Joystick = findViewById(R.id.CameraJoystick);
+
+        /* this will show current speed */
+        final SpeedLabel JoystickSpeedLabel =
+                new SpeedLabel((TextView) findViewById(R.id.JoystickParametersTextView));
 
-        @Override
-        public GraphName getDefaultNodeName() {
-            return GraphName.of("RosJava/JoystickNode");
+        /*
+        convert joystick movements to robot movement commands
+        by default refresh rate is 20/s (every 50 ms)
+        angle is calculated from right = 0 to counter-clockwise
+        (North is 90, west = 180, south = 270 right = 360/0
+        */
+
+        /* assign a MAX_SPEED for the robot here */
+        /* TODO: Make this customizable in master chooser maybe? */
+        final double MAX_SPEED = 0.6;
+
+        Joystick.setOnMoveListener(new JoystickView.OnMoveListener() {
+            @Override
+            public void onMove(int angle, int strength) {
+
+                /*
+                To better understand the next algorithm, here is an explanation:
+
+                Visualise a circle (representing the joystick) on a vertical x and horizontal
+                z axis with a max radius equal to when the strength is 100%.
+
+                Between 0 and pi/2, the x and z co-ordinates, given the r as strength and
+                angle, can be calculated using the fundamentals of SOH-CAH-TOA:
+
+                                                 ^ x (pi/2 rad)
+                                                 |
+                                                 |      /|
+                                                 | str / |
+                                                 |    /  |
+                                                 |   /   | x[0]
+                                                 |  /    |
+                                                 | /     |
+                         ------------------------|/------|------------------> z
+                       (pi rad)                  |    z[0]            (0 & 2*pi rad)
+                                                 |
+                                                 |
+                                                 |
+                                                 |
+                                                 |
+                                                 | (3*pi / 2 rad)
+
+                x = (str) * sin(angle) * MAX_SPEED and z = (str) * cos(angle) * MAX_SPEED
+
+                We can use this fundamental law of trigonometry and apply it to all 4
+                regions of our visualised axis. The trigonometry equations remain the same,
+                but our angles change as the angle is calculated between 0 and 2pi from the
+                far right counter-clockwise. The co-sine value is the opposite polarity of our
+                intended z velocity for moving the robot forward so it's multiplied by -1.
+                The MAX_SPEED variable represents a predefined limit for how fast the robot
+                can go.
+                */
+                /* TODO: Improve this algorithm, it is a bit messy! */
+
+                double x = (((double) strength / 100.0) *
+                        Math.sin(Math.toRadians(angle)) * MAX_SPEED);
+
+                double z = 0;
+                if ((angle >= 0) && (angle <= 180))
+                    z = (((double) strength / 100.0) *
+                            -1.0 * Math.cos(Math.toRadians(angle)) * MAX_SPEED);
+                if ((angle >= 180) && (angle <= 360))
+                    z = (((double) strength / 100.0) *
+                            Math.cos(Math.toRadians(angle)) * MAX_SPEED);
+
+                // TODO: Use other directional speeds
+                /* published with the next tick of the teleop publisher */
+                CmdVelPublisher.setVelocity((float) x, (float) z);
+
+                /* let user see their speed */
+                JoystickSpeedLabel.invalidate();
+            }
+        });
+    }
+
+    /* updates the speed label at most once per display frame, however often the joystick moves */
+    private class SpeedLabel implements Choreographer.FrameCallback {
+
+        private final TextView LabelView;
+
+        /* only touched on the UI thread */
+        private boolean FramePosted;
+        private float ShownLinear = Float.NaN;
+        private float ShownAngular = Float.NaN;
+
+        private SpeedLabel(TextView LabelView) {
+            this.LabelView = LabelView;
+        }
+
+        /* must be called on the UI thread */
+        private void invalidate() {
+            if (!FramePosted) {
+                FramePosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
         }
 
         @Override
-        public void onStart(ConnectedNode connectedNode) {
-            /*
-            credit to https://github.com/controlwear/virtual-joystick-android
-            (requires min sdk version 16 at least)
-            */
-            JoystickView Joystick = findViewById(R.id.CameraJoystick);
-
-            /* this will show current speed */
-            final TextView JoystickParamsTextView = findViewById(R.id.JoystickParametersTextView);
-
-            /*
-            convert joystick movements to robot movement commands
-            by default refresh rate is 20/s (every 50 ms)
-            angle is calculated from right = 0 to counter-clockwise
-            (North is 90, west = 180, south = 270 right = 360/0
-            create a twist publisher connected to cmd_vel
-            */
-
-            final Publisher<Twist> MovementPublisher =
-                    connectedNode.newPublisher(getString(R.string.CmdVelTopic),
-                            geometry_msgs.Twist._TYPE);
-
-            /* TODO: Allow user to choose cmd_vel in master chooser */
-
-            /* used to publish our values */
-            final double[] x = new double[1];
-            final double[] z = new double[1];
-
-            /* assign a MAX_SPEED for the robot here */
-            /* TODO: Make this customizable in master chooser maybe? */
-            final double MAX_SPEED = 0.6;
-
-            Joystick.setOnMoveListener(new JoystickView.OnMoveListener() {
-                @Override
-                public void onMove(int angle, int strength) {
-
-                    /* This line creates a new twist message */
-                    geometry_msgs.Twist CameraMovement = MovementPublisher.newMessage();
-
-
-                    /*
-                    To better understand the next algorithm, here is an explanation:
-
-                    Visualise a circle (representing the joystick) on a vertical x and horizontal
-                    z axis with a max radius equal to when the strength is 100%.
-
-                    Between 0 and pi/2, the x and z co-ordinates, given the r as strength and
-                    angle, can be calculated using the fundamentals of SOH-CAH-TOA:
-
-                                                     ^ x (pi/2 rad)
-                                                     |
-                                                     |      /|
-                                                     | str / |
-                                                     |    /  |
-                                                     |   /   | x[0]
-                                                     |  /    |
-                                                     | /     |
-                             ------------------------|/------|------------------> z
-                           (pi rad)                  |    z[0]            (0 & 2*pi rad)
-                                                     |
-                                                     |
-                                                     |
-                                                     |
-                                                     |
-                                                     | (3*pi / 2 rad)
-
-                    x = (str) * sin(angle) * MAX_SPEED and z = (str) * cos(angle) * MAX_SPEED
-
-                    We can use this fundamental law of trigonometry and apply it to all 4
-                    regions of our visualised axis. The trigonometry equations remain the same,
-                    but our angles change as the angle is calculated between 0 and 2pi from the
-                    far right counter-clockwise. The co-sine value is the opposite polarity of our
-                    intended z velocity for moving the robot forward so it's multiplied by -1.
-                    The MAX_SPEED variable represents a predefined limit for how fast the robot
-                    can go.
-                    */
-                    /* TODO: Improve this algorithm, it is a bit messy! */
-
-
-                    x[0] = (((double) strength / 100.0) *
-                            Math.sin(Math.toRadians(angle)) * MAX_SPEED);
-
-                    if ((angle >= 0) && (angle <= 180))
-                        z[0] = (((double) strength / 100.0) *
-                                -1.0 * Math.cos(Math.toRadians(angle)) * MAX_SPEED);
-                    if ((angle >= 180) && (angle <= 360))
-                        z[0] = (((double) strength / 100.0) *
-                                Math.cos(Math.toRadians(angle)) * MAX_SPEED);
-
-                    /* publish our new x and y values */
-                    CameraMovement.getLinear().setX(x[0]);
-                    CameraMovement.getAngular().setZ(z[0]);
-
-                    // TODO: Use other directional speeds
-                    /* let user see their speed */
-                    JoystickParamsTextView.setText(java.lang.String.format(Locale.ENGLISH,
-                            "Linear Speed: %2.2f m/s, Angular Speed: %2.2f m/s",
-                            x[0], z[0]));
-
-                    MovementPublisher.publish(CameraMovement);
-                }
-            });
+        public void doFrame(long frameTimeNanos) {
+            FramePosted = false;
+            float Linear = CmdVelPublisher.getLinearVelocity();
+            float Angular = CmdVelPublisher.getAngularVelocity();
+            if (Linear == ShownLinear && Angular == ShownAngular) {
+                return;
+            }
+            ShownLinear = Linear;
+            ShownAngular = Angular;
+            LabelView.setText(java.lang.String.format(Locale.ENGLISH,
+                    "Linear Speed: %2.2f m/s, Angular Speed: %2.2f m/s", Linear, Angular));
         }
     }
 
 
+    @Override
+    protected void onDestroy() {
+        CameraDecodeWorker.shutdown();
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         startActivity(new Intent(CameraView.this,